@@ -0,0 +1,249 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import java.sql.*;
+
+/**
+ * Maps values of types unknown to SQL Developer's MySQL mode to strings. For example
+ * PostgreSQL arrays, json, jsonb and interval, Snowflake VARIANT, OBJECT and ARRAY,
+ * H2 JSON and UUID or SQLite values not matching the declared type of a column.
+ * The result set metadata reports such columns as TEXT. A decoder is determined per
+ * column on first access. Only cells read via getObject are converted.
+ */
+public class ConvertingResultSet extends DelegatingResultSet {
+    private final String product;
+    private final ResultSetMetaData targetMetaData;
+    private final Decoder[] decoders;
+    private ResultSetMetaData metaData;
+
+    /**
+     * Reads the value of a column in the current row.
+     */
+    private interface Decoder {
+        Object decode(ResultSet rs, int columnIndex) throws SQLException;
+    }
+
+    private final static Decoder AS_IS = ResultSet::getObject;
+    private final static Decoder AS_STRING = ResultSet::getString;
+    private final static Decoder STRING_IF_NEEDED = (rs, columnIndex) -> {
+        Object value = rs.getObject(columnIndex);
+        return value == null || value instanceof String ? value : rs.getString(columnIndex);
+    };
+
+    private ConvertingResultSet(ResultSet target, Statement statement, String product) throws SQLException {
+        super(target, statement);
+        this.product = product;
+        this.targetMetaData = target.getMetaData();
+        this.decoders = new Decoder[targetMetaData.getColumnCount()];
+    }
+
+    /**
+     * Returns a converting result set. The target is returned for MySQL, where no conversions are required.
+     */
+    public static ResultSet wrap(ResultSet target, Statement statement, String product) throws SQLException {
+        if (target == null || "MySQL".equals(product)) {
+            return target;
+        }
+        return new ConvertingResultSet(target, statement, product);
+    }
+
+    private Decoder decoder(int columnIndex) throws SQLException {
+        if (columnIndex < 1 || columnIndex > decoders.length) {
+            throw new SQLException("Invalid column index " + columnIndex + ".");
+        }
+        Decoder decoder = decoders[columnIndex - 1];
+        if (decoder == null) {
+            decoder = createDecoder(columnIndex);
+            decoders[columnIndex - 1] = decoder;
+        }
+        return decoder;
+    }
+
+    private Decoder createDecoder(int columnIndex) throws SQLException {
+        String typeName = targetMetaData.getColumnTypeName(columnIndex);
+        typeName = typeName == null ? "" : typeName.toUpperCase();
+        switch (targetMetaData.getColumnType(columnIndex)) {
+            case Types.ARRAY:
+            case Types.STRUCT:
+            case Types.SQLXML:
+            case Types.OTHER:
+            case Types.JAVA_OBJECT:
+            case Types.DISTINCT:
+                return AS_STRING;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                if ("Snowflake".equals(product) && (typeName.equals("VARIANT") || typeName.equals("OBJECT") || typeName.equals("ARRAY"))) {
+                    return AS_STRING;
+                }
+                // SQLite stores values of any type in any column
+                return "SQLite".equals(product) ? STRING_IF_NEEDED : AS_IS;
+            default:
+                return typeName.equals("UUID") || typeName.equals("JSON") || typeName.startsWith("INTERVAL") ? AS_STRING : AS_IS;
+        }
+    }
+
+    private boolean isConverted(int columnIndex) throws SQLException {
+        return decoder(columnIndex) == AS_STRING;
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        return decoder(columnIndex).decode(target, columnIndex);
+    }
+
+    @Override
+    public Object getObject(String columnLabel) throws SQLException {
+        return getObject(target.findColumn(columnLabel));
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        if (metaData == null) {
+            metaData = new MetaData();
+        }
+        return metaData;
+    }
+
+    /**
+     * Metadata reporting converted columns as TEXT.
+     */
+    private class MetaData implements ResultSetMetaData {
+        @Override
+        public int getColumnCount() throws SQLException {
+            return targetMetaData.getColumnCount();
+        }
+
+        @Override
+        public boolean isAutoIncrement(int column) throws SQLException {
+            return targetMetaData.isAutoIncrement(column);
+        }
+
+        @Override
+        public boolean isCaseSensitive(int column) throws SQLException {
+            return targetMetaData.isCaseSensitive(column);
+        }
+
+        @Override
+        public boolean isSearchable(int column) throws SQLException {
+            return targetMetaData.isSearchable(column);
+        }
+
+        @Override
+        public boolean isCurrency(int column) throws SQLException {
+            return targetMetaData.isCurrency(column);
+        }
+
+        @Override
+        public int isNullable(int column) throws SQLException {
+            return targetMetaData.isNullable(column);
+        }
+
+        @Override
+        public boolean isSigned(int column) throws SQLException {
+            return targetMetaData.isSigned(column);
+        }
+
+        @Override
+        public int getColumnDisplaySize(int column) throws SQLException {
+            return targetMetaData.getColumnDisplaySize(column);
+        }
+
+        @Override
+        public String getColumnLabel(int column) throws SQLException {
+            return targetMetaData.getColumnLabel(column);
+        }
+
+        @Override
+        public String getColumnName(int column) throws SQLException {
+            return targetMetaData.getColumnName(column);
+        }
+
+        @Override
+        public String getSchemaName(int column) throws SQLException {
+            return targetMetaData.getSchemaName(column);
+        }
+
+        @Override
+        public int getPrecision(int column) throws SQLException {
+            return targetMetaData.getPrecision(column);
+        }
+
+        @Override
+        public int getScale(int column) throws SQLException {
+            return isConverted(column) ? 0 : targetMetaData.getScale(column);
+        }
+
+        @Override
+        public String getTableName(int column) throws SQLException {
+            return targetMetaData.getTableName(column);
+        }
+
+        @Override
+        public String getCatalogName(int column) throws SQLException {
+            return targetMetaData.getCatalogName(column);
+        }
+
+        @Override
+        public int getColumnType(int column) throws SQLException {
+            return isConverted(column) ? Types.LONGVARCHAR : targetMetaData.getColumnType(column);
+        }
+
+        @Override
+        public String getColumnTypeName(int column) throws SQLException {
+            return isConverted(column) ? "TEXT" : targetMetaData.getColumnTypeName(column);
+        }
+
+        @Override
+        public boolean isReadOnly(int column) throws SQLException {
+            return targetMetaData.isReadOnly(column);
+        }
+
+        @Override
+        public boolean isWritable(int column) throws SQLException {
+            return targetMetaData.isWritable(column);
+        }
+
+        @Override
+        public boolean isDefinitelyWritable(int column) throws SQLException {
+            return targetMetaData.isDefinitelyWritable(column);
+        }
+
+        @Override
+        public String getColumnClassName(int column) throws SQLException {
+            return isConverted(column) || decoder(column) == STRING_IF_NEEDED
+                    ? String.class.getName() : targetMetaData.getColumnClassName(column);
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            return targetMetaData.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || targetMetaData.isWrapperFor(iface);
+        }
+    }
+}
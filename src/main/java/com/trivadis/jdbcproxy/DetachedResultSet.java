@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Base class for read-only result sets holding detached copies of target rows.
+ * Values of the current row are read via a cached result set provided by the subclass,
+ * the cursor movements are implemented by the subclass.
+ */
+abstract class DetachedResultSet extends DelegatingResultSet {
+    protected final CachedResultSetMetaData metaData;
+
+    /**
+     * @param target the result set the rows are copied from
+     */
+    protected DetachedResultSet(ResultSet target, Statement statement, CachedResultSetMetaData metaData) {
+        super(target, statement);
+        this.metaData = metaData;
+    }
+
+    /**
+     * Throws an exception if the result set is closed.
+     */
+    protected abstract void checkOpen() throws SQLException;
+
+    /**
+     * Returns a result set positioned on the current row.
+     * Throws an exception if there is no current row.
+     */
+    protected abstract ResultSet current() throws SQLException;
+
+    @Override
+    protected ResultSet target() throws SQLException {
+        return current();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void clearWarnings() {
+        // nothing to clear
+    }
+
+    @Override
+    public String getCursorName() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        checkOpen();
+        return metaData;
+    }
+
+    @Override
+    public int findColumn(String columnLabel) throws SQLException {
+        checkOpen();
+        int index = metaData.indexOf(columnLabel);
+        if (index < 0) {
+            throw new SQLException("Column " + columnLabel + " not found.");
+        }
+        return index + 1;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return ResultSet.CONCUR_READ_ONLY;
+    }
+
+    @Override
+    public int getHoldability() {
+        return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+    }
+
+    @Override
+    public boolean rowUpdated() {
+        return false;
+    }
+
+    @Override
+    public boolean rowInserted() {
+        return false;
+    }
+
+    @Override
+    public boolean rowDeleted() {
+        return false;
+    }
+
+    @Override
+    public void updateRow() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void insertRow() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteRow() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void refreshRow() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void cancelRowUpdates() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void moveToInsertRow() throws SQLException {
+        throw readOnly();
+    }
+
+    @Override
+    public void moveToCurrentRow() throws SQLException {
+        throw readOnly();
+    }
+
+    private SQLFeatureNotSupportedException readOnly() {
+        return new SQLFeatureNotSupportedException("Result set is read-only.");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Cannot unwrap to " + iface.getName() + ".");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
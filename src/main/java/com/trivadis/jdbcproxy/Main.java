@@ -16,12 +16,26 @@
 
 package com.trivadis.jdbcproxy;
 
+import com.trivadis.jdbcproxy.log.TrafficRecord;
+import com.trivadis.jdbcproxy.log.TrafficReplay;
+import com.trivadis.jdbcproxy.metrics.MetricsRegistry;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Properties;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
@@ -80,9 +94,92 @@ public class Main {
         print("");
     }
 
-    public static void main(String[] args) {
+    private void printUsage() {
+        print("Usage:");
+        print("  replay <file> <url> [options]  re-runs the statements of a traffic log recorded with proxy.record");
+        print("");
+        print("Options of replay:");
+        print("  --user=<user>          user of the target");
+        print("  --password=<password>  password of the target");
+        print("  --concurrency=<n>      number of sessions replayed at the same time (default 1)");
+        print("  --speed=<factor>       pace relative to the recording, 0 for no pauses (default 1)");
+        print("  --rewritten            run the SQL sent to the recorded target instead of the original SQL");
+        print("");
+        print("  unmatched <host:port>  lists the most frequent statements without a full rewrite, recorded");
+        print("                         with proxy.unmatchedStatements in a JVM with remote JMX enabled");
+        print("");
+    }
+
+    /**
+     * Prints the statements of the sketch of unmatched statements of a remote JVM.
+     * Returns false if the arguments are invalid.
+     */
+    private boolean unmatched(String[] args) throws IOException, JMException {
+        if (args.length != 2) {
+            return false;
+        }
+        String address = args[1].startsWith("service:jmx:") ? args[1] : "service:jmx:rmi:///jndi/rmi://" + args[1] + "/jmxrmi";
+        try (JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(address))) {
+            MBeanServerConnection server = connector.getMBeanServerConnection();
+            CompositeData[] statements = (CompositeData[]) server.getAttribute(new ObjectName(MetricsRegistry.OBJECT_NAME),
+                    "UnmatchedStatements");
+            System.out.println(String.format("%10s %8s %12s  %-16s  %s", "count", "failures", "total ms", "fingerprint", "sql"));
+            for (CompositeData statement : statements) {
+                System.out.println(String.format("%10d %8d %12.1f  %-16s  %s", statement.get("count"), statement.get("failures"),
+                        statement.get("totalMillis"), statement.get("fingerprint"), statement.get("sql")));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays a traffic log, see {@link #printUsage()}. Returns false if the arguments are invalid.
+     */
+    private boolean replay(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            return false;
+        }
+        Properties info = new Properties();
+        int concurrency = 1;
+        double speed = 1;
+        boolean rewritten = false;
+        for (int i = 3; i < args.length; i++) {
+            String arg = args[i];
+            int pos = arg.indexOf('=');
+            String name = pos > 0 ? arg.substring(0, pos) : arg;
+            String value = pos > 0 ? arg.substring(pos + 1) : null;
+            try {
+                if ("--user".equals(name) && value != null) {
+                    info.setProperty("user", value);
+                } else if ("--password".equals(name) && value != null) {
+                    info.setProperty("password", value);
+                } else if ("--concurrency".equals(name) && value != null) {
+                    concurrency = Integer.parseInt(value);
+                } else if ("--speed".equals(name) && value != null) {
+                    speed = Double.parseDouble(value);
+                } else if ("--rewritten".equals(name) && value == null) {
+                    rewritten = true;
+                } else {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        List<TrafficRecord> records = TrafficRecord.read(new File(args[1]));
+        System.out.print(new TrafficReplay(records, args[2], info, concurrency, speed, rewritten).run());
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, JMException {
         Main instance = new Main();
         instance.printInfo();
+        if (args.length > 0) {
+            if (!("replay".equals(args[0]) && instance.replay(args) || "unmatched".equals(args[0]) && instance.unmatched(args))) {
+                instance.printUsage();
+                System.exit(1);
+            }
+        }
     }
 
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.NavigatorPrefetcher.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection for navigator queries and DatabaseMetaData calls, shared by all proxy connections
+ * to the same target and user. Catalog reads are therefore not blocked by long-running user
+ * queries. Proxy connections with different session settings (catalog, schema, USE commands)
+ * get a connection with these settings applied. A connection is used by one thread at a time,
+ * it must be locked via lock() and unlocked via unlock(). The connections are opened on first
+ * use and closed when the last proxy connection releases the channel. At most MAX_CONNECTIONS
+ * connections are kept, the least recently used unlocked one is closed when another one is
+ * opened. A connection which cannot be opened is retried after RETRY_MILLIS.
+ */
+public class MetadataChannel {
+    private final static long RETRY_MILLIS = 30_000;
+    private final static int MAX_CONNECTIONS = 4;
+    private final static Map<String, MetadataChannel> channels = new HashMap<>();
+
+    private final String key;
+    private final ConnectionFactory connectionFactory;
+    // in access order, the least recently used slot first
+    private final Map<List<Setting>, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private int references = 0;
+
+    /**
+     * A session setting of a proxy connection, the catalog, the schema or a USE command.
+     */
+    public static class Setting {
+        public final static String CATALOG = "catalog";
+        public final static String SCHEMA = "schema";
+        private final String name;
+        private final String value;
+
+        /**
+         * @param name  CATALOG, SCHEMA or the kind of a USE command (e.g. "WAREHOUSE")
+         * @param value the catalog, the schema or the USE command
+         */
+        public Setting(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private void apply(Connection conn) throws SQLException {
+            if (CATALOG.equals(name)) {
+                conn.setCatalog(value);
+            } else if (SCHEMA.equals(name)) {
+                conn.setSchema(value);
+            } else {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(value);
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Setting)) {
+                return false;
+            }
+            Setting other = (Setting) o;
+            return name.equals(other.name) && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, value);
+        }
+    }
+
+    /**
+     * A connection of the channel with the settings applied.
+     */
+    private static class Slot {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final List<Setting> settings;
+        private volatile Connection connection;
+        private long retryTime;
+        private boolean closed = false;
+
+        private Slot(List<Setting> settings) {
+            this.settings = settings;
+        }
+    }
+
+    private MetadataChannel(String key, ConnectionFactory connectionFactory) {
+        this.key = key;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Returns the channel for a key and registers a reference. Must be released via release().
+     *
+     * @param connectionFactory opens the connections of a new channel
+     */
+    public static MetadataChannel acquire(String key, ConnectionFactory connectionFactory) {
+        synchronized (channels) {
+            MetadataChannel channel = channels.computeIfAbsent(key, k -> new MetadataChannel(k, connectionFactory));
+            channel.references++;
+            return channel;
+        }
+    }
+
+    /**
+     * Unregisters a reference. The connections are closed when no references are left.
+     */
+    public void release() {
+        synchronized (channels) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            channels.remove(key, this);
+        }
+        closeConnections();
+    }
+
+    /**
+     * Returns the connection with the passed settings applied, locked by the current thread.
+     * Returns null if the target is not reachable or the settings cannot be applied.
+     * A returned connection must be unlocked via unlock().
+     */
+    public Connection lock(List<Setting> settings) {
+        while (true) {
+            Slot slot;
+            List<Slot> evicted;
+            synchronized (this) {
+                slot = slots.computeIfAbsent(new ArrayList<>(settings), Slot::new);
+                evicted = evict(slot);
+            }
+            close(evicted);
+            slot.lock.lock();
+            if (slot.closed) {
+                // evicted or released meanwhile
+                slot.lock.unlock();
+                continue;
+            }
+            Connection conn = open(slot);
+            if (conn == null) {
+                slot.lock.unlock();
+            }
+            return conn;
+        }
+    }
+
+    /**
+     * Removes the least recently used slots exceeding MAX_CONNECTIONS, except the passed one.
+     * Slots locked by other threads are kept. The removed slots are locked, they must be closed
+     * via close(List).
+     */
+    private List<Slot> evict(Slot used) {
+        List<Slot> evicted = new ArrayList<>();
+        Iterator<Slot> iterator = slots.values().iterator();
+        while (slots.size() > MAX_CONNECTIONS && iterator.hasNext()) {
+            Slot slot = iterator.next();
+            if (slot != used && slot.lock.tryLock()) {
+                iterator.remove();
+                evicted.add(slot);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Locks a connection returned by lock(List) again, e.g. to execute a statement prepared on it.
+     * Returns false if the connection does not belong to this channel (anymore).
+     */
+    public boolean lock(Connection conn) {
+        Slot slot = slotOf(conn);
+        if (slot == null) {
+            return false;
+        }
+        slot.lock.lock();
+        if (slot.connection != conn) {
+            // reopened in the meantime
+            slot.lock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Unlocks a connection locked by the current thread.
+     */
+    public void unlock(Connection conn) {
+        Slot slot = slotOf(conn);
+        if (slot != null && slot.lock.isHeldByCurrentThread()) {
+            slot.lock.unlock();
+        }
+    }
+
+    private synchronized Slot slotOf(Connection conn) {
+        if (conn == null) {
+            return null;
+        }
+        for (Slot slot : slots.values()) {
+            if (slot.connection == conn) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Connection open(Slot slot) {
+        try {
+            if (slot.connection != null && !slot.connection.isClosed()) {
+                return slot.connection;
+            }
+        } catch (SQLException e) {
+            // reopen
+        }
+        if (System.currentTimeMillis() < slot.retryTime) {
+            return null;
+        }
+        Connection conn = null;
+        try {
+            conn = connectionFactory.connect();
+            for (Setting setting : slot.settings) {
+                setting.apply(conn);
+            }
+            slot.connection = conn;
+            return conn;
+        } catch (SQLException e) {
+            close(conn);
+            slot.connection = null;
+            slot.retryTime = System.currentTimeMillis() + RETRY_MILLIS;
+            return null;
+        }
+    }
+
+    private void closeConnections() {
+        List<Slot> closed;
+        synchronized (this) {
+            closed = new ArrayList<>(slots.values());
+            slots.clear();
+        }
+        for (Slot slot : closed) {
+            slot.lock.lock();
+        }
+        close(closed);
+    }
+
+    /**
+     * Closes the connections of the passed slots locked by the current thread and unlocks them.
+     */
+    private static void close(List<Slot> slots) {
+        for (Slot slot : slots) {
+            try {
+                close(slot.connection);
+                slot.connection = null;
+                slot.closed = true;
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    private static void close(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+}
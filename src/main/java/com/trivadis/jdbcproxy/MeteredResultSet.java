@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.jfr.Events;
+import com.trivadis.jdbcproxy.log.QueryTrace;
+import com.trivadis.jdbcproxy.metrics.Metrics;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Records the fetch calls and the lifetime of a target result set in the metrics of the connection.
+ * Fetch calls are also emitted as JFR events, if recording.
+ */
+class MeteredResultSet extends DelegatingResultSet {
+    private final Metrics metrics;
+    private final String sql;
+    private final QueryTrace trace;
+    private long row = 0;
+    private boolean open = true;
+
+    /**
+     * @param trace trace of the execution, finished when the result set is released, null if not traced
+     */
+    MeteredResultSet(ResultSet target, Statement statement, Metrics metrics, String sql, QueryTrace trace) {
+        super(target, statement);
+        this.metrics = metrics;
+        this.sql = sql;
+        this.trace = trace;
+        metrics.resultSetOpened();
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        long start = System.nanoTime();
+        Object event = Events.begin(Events.FETCH);
+        boolean next = target.next();
+        long nanos = System.nanoTime() - start;
+        metrics.recordFetch(nanos, next ? 1 : 0);
+        if (trace != null) {
+            trace.fetched(nanos, next ? 1 : 0);
+        }
+        if (next) {
+            row++;
+        }
+        if (event != null) {
+            Events.commitFetch(event, sql, row);
+        }
+        return next;
+    }
+
+    /**
+     * Marks the result set as closed in the metrics, e.g. when the statement is closed.
+     */
+    void release() {
+        if (open) {
+            open = false;
+            metrics.resultSetClosed();
+            if (trace != null) {
+                trace.finish();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        release();
+        target.close();
+    }
+}
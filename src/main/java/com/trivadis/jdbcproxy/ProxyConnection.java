@@ -16,34 +16,511 @@
 
 package com.trivadis.jdbcproxy;
 
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.cache.MetadataCache;
+import com.trivadis.jdbcproxy.cache.NavigatorPrefetcher;
+import com.trivadis.jdbcproxy.cache.ResultCache;
+import com.trivadis.jdbcproxy.cache.SchemaChangeDetector;
+import com.trivadis.jdbcproxy.jfr.Events;
+import com.trivadis.jdbcproxy.log.QueryTrace;
+import com.trivadis.jdbcproxy.log.SlowQueryLog;
+import com.trivadis.jdbcproxy.log.TrafficRecorder;
+import com.trivadis.jdbcproxy.metrics.Metrics;
+import com.trivadis.jdbcproxy.metrics.MetricsRegistry;
 import com.trivadis.jdbcproxy.rewrite.RewriteHelper;
+import com.trivadis.jdbcproxy.rewrite.RewriteResult;
 
+import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ProxyConnection implements Connection {
+    private final static Pattern USE = Pattern.compile(
+            "\\s*USE\\s+(?:(DATABASE|SCHEMA|WAREHOUSE|ROLE|SECONDARY)\\s+)?.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern BEGIN = Pattern.compile(
+            "\\s*(?:START\\s+TRANSACTION\\b.*|BEGIN(?:\\s*;?\\s*|\\s+(?:WORK|TRANSACTION|DEFERRED|IMMEDIATE|EXCLUSIVE|ISOLATION|READ|NAME)\\b.*))",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern END = Pattern.compile(
+            "\\s*(?:COMMIT|ROLLBACK|END|ABORT)(?:\\s+(?:WORK|TRANSACTION))?\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
     private final Connection target;
+    private final ProxyUrl url;
+    private final NavigatorPrefetcher.ConnectionFactory connectionFactory;
+    private final NavigatorPrefetcher.ConnectionFactory replicaFactory;
+    private MetadataChannel metadataChannel;
+    private boolean metadataChannelInitialized = false;
+    private volatile List<MetadataChannel.Setting> settings = Collections.emptyList();
     private final RewriteHelper rewriterHelper = new RewriteHelper();
-
-    ProxyConnection(Connection connection) {
+    private String product;
+    private MetadataCache metadataCache;
+    private NavigatorPrefetcher prefetcher;
+    private boolean metadataCacheInitialized = false;
+    private boolean sharedMetadataCache = false;
+    private ResultCache resultCache;
+    private boolean resultCacheInitialized = false;
+    private final Metrics metrics;
+    private long lastPrepareNanos;
+    private SlowQueryLog slowQueryLog;
+    private boolean slowQueryLogInitialized = false;
+    private TrafficRecorder trafficRecorder;
+    private int session;
+    private boolean trafficRecorderInitialized = false;
+    private boolean inTransaction = false;
+
+    /**
+     * @param url               parsed proxy URL, provides the proxy options
+     * @param connectionFactory opens additional connections to the target for background
+     *                          work, null if not supported (e.g. private in-memory databases)
+     * @param replicaFactory    opens connections to a read replica, null if no replicas are defined
+     */
+    ProxyConnection(Connection connection, ProxyUrl url, NavigatorPrefetcher.ConnectionFactory connectionFactory,
+                    NavigatorPrefetcher.ConnectionFactory replicaFactory) {
         target = connection;
+        this.url = url;
+        this.connectionFactory = connectionFactory;
+        this.replicaFactory = replicaFactory;
+        this.metrics = MetricsRegistry.getInstance().openConnection(UrlUtil.sanitizeTargetUrl(url.getTargetUrl()),
+                url.getLongOption(ProxyUrl.BURST_GAP, MetricsRegistry.DEFAULT_BURST_GAP));
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Prepares a statement on the target.
+     */
+    private interface Preparation {
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    private PreparedStatement prepare(String sql, Preparation preparation) throws SQLException {
+        long start = System.nanoTime();
+        Object event = Events.begin(Events.PREPARE);
+        try {
+            return preparation.prepare();
+        } finally {
+            lastPrepareNanos = System.nanoTime() - start;
+            metrics.recordPrepare(lastPrepareNanos);
+            if (event != null) {
+                Events.commitPrepare(event, sql);
+            }
+        }
+    }
+
+    /**
+     * Returns the duration of the last prepare call, read by the statement created from it.
+     */
+    long getLastPrepareNanos() {
+        return lastPrepareNanos;
+    }
+
+    /**
+     * Returns the slow query log, null if disabled (default).
+     */
+    SlowQueryLog getSlowQueryLog() {
+        if (!slowQueryLogInitialized) {
+            long threshold = url.getLongOption(ProxyUrl.SLOW_QUERY_THRESHOLD, 0);
+            if (threshold > 0) {
+                String file = url.getOption(ProxyUrl.SLOW_QUERY_LOG,
+                        new File(System.getProperty("user.home"), "jdbc-proxy-slow-queries.log").getPath());
+                slowQueryLog = SlowQueryLog.getInstance(file, threshold,
+                        url.getSizeOption(ProxyUrl.SLOW_QUERY_LOG_SIZE, 10L * 1024 * 1024), 5);
+            }
+            slowQueryLogInitialized = true;
+        }
+        return slowQueryLog;
+    }
+
+    /**
+     * Records the execution of a statement which matched no full rewrite rule in the sketch
+     * of unmatched statements, if enabled.
+     */
+    void recordUnmatched(String sql, long nanos, boolean failed) {
+        if (url.getBooleanOption(ProxyUrl.UNMATCHED_STATEMENTS, false)) {
+            MetricsRegistry.getInstance().getUnmatchedStatementSketch().record(sql, nanos, failed);
+        }
+    }
+
+    /**
+     * Returns true if navigator queries on Snowflake are answered by SHOW commands
+     * instead of information_schema views.
+     */
+    boolean isShowMetadata() throws SQLException {
+        return ProxyUrl.SHOW.equals(url.getOption(ProxyUrl.SNOWFLAKE_METADATA, ProxyUrl.INFORMATION_SCHEMA))
+                && "Snowflake".equals(getProduct());
+    }
+
+    /**
+     * Returns the recorder of all statements executed on this connection, null if disabled (default).
+     */
+    TrafficRecorder getTrafficRecorder() {
+        if (!trafficRecorderInitialized) {
+            String file = url.getOption(ProxyUrl.RECORD, null);
+            if (file != null && !file.isEmpty()) {
+                trafficRecorder = TrafficRecorder.getInstance(file);
+                session = trafficRecorder.nextSession();
+            }
+            trafficRecorderInitialized = true;
+        }
+        return trafficRecorder;
+    }
+
+    /**
+     * Starts the trace of a statement execution, null if neither the slow query log
+     * nor the traffic recorder is enabled.
+     *
+     * @param binds        bind values, null if none
+     * @param prepareNanos duration of the prepare call to be attributed to this execution
+     */
+    QueryTrace startTrace(String originalSql, String sql, List<Object> binds, long prepareNanos) {
+        SlowQueryLog log = getSlowQueryLog();
+        TrafficRecorder recorder = getTrafficRecorder();
+        if (log == null && recorder == null) {
+            return null;
+        }
+        String product;
+        try {
+            product = getProduct();
+        } catch (SQLException e) {
+            product = null;
+        }
+        return new QueryTrace(log, recorder, session, originalSql, sql, product, binds, prepareNanos);
+    }
+
+    /**
+     * Returns true within an open transaction, i.e. after a statement which is not read-only was
+     * executed with autocommit off or after BEGIN or START TRANSACTION, and before commit or rollback
+     * (via JDBC or SQL). Such reads must see the changes of the transaction and are therefore
+     * neither routed to a replica nor cached.
+     */
+    boolean isInTransaction() {
+        return inTransaction;
+    }
+
+    /**
+     * Returns the connection for catalog reads. Outside of an explicit transaction, this is the
+     * connection of the metadata channel shared with other proxy connections to the same target
+     * and with the same session settings. It is connected to a replica, if replicas are defined.
+     * Otherwise, the user's connection is used, also when the channel is not available (e.g.
+     * private in-memory databases). The connection must be passed to unlockReadConnection()
+     * after use, the channel is locked meanwhile.
+     */
+    private Connection lockReadConnection() throws SQLException {
+        if (isInTransaction()) {
+            return target;
+        }
+        Connection conn = lockChannelConnection();
+        return conn == null ? target : conn;
+    }
+
+    /**
+     * Returns the connection of the metadata channel for background work, null if not available.
+     */
+    private Connection lockChannelConnection() throws SQLException {
+        MetadataChannel channel = getMetadataChannel();
+        return channel == null ? null : channel.lock(settings);
+    }
+
+    private void unlockReadConnection(Connection conn) {
+        if (conn != target && metadataChannel != null) {
+            metadataChannel.unlock(conn);
+        }
+    }
+
+    /**
+     * Executes a query of a statement prepared on the connection for catalog reads. If it is a
+     * connection of the metadata channel, the channel is locked until the result is read completely.
+     */
+    ResultSet executeRead(Statement statement, MetadataCache.Loader loader) throws SQLException {
+        Connection conn = statement.getConnection();
+        if (conn == target || metadataChannel == null || !metadataChannel.lock(conn)) {
+            return loader.executeQuery();
+        }
+        try (ResultSet rs = loader.executeQuery()) {
+            return CachedResult.read(rs, new CachedResultSetMetaData(rs.getMetaData()), Integer.MAX_VALUE)
+                    .newResultSet(statement);
+        } finally {
+            metadataChannel.unlock(conn);
+        }
+    }
+
+    /**
+     * Executes a catalog call of DatabaseMetaData on the connection for catalog reads. If it is a
+     * connection of the metadata channel, the result is read completely while the channel is locked.
+     */
+    ResultSet readMetaData(ProxyDatabaseMetaData.MetadataCall call) throws SQLException {
+        Connection conn = lockReadConnection();
+        try {
+            ResultSet rs = call.call(conn.getMetaData());
+            return conn == target || rs == null ? rs : CachedResult.of(rs).newResultSet(null);
+        } finally {
+            unlockReadConnection(conn);
+        }
+    }
+
+    /**
+     * Records a session setting to be applied to the connection of the metadata channel. A setting
+     * of the same name made before is replaced, the order of the settings is kept.
+     */
+    private void setting(String name, String value) {
+        List<MetadataChannel.Setting> changed = new ArrayList<>(settings.size() + 1);
+        for (MetadataChannel.Setting setting : settings) {
+            if (!setting.getName().equals(name)) {
+                changed.add(setting);
+            }
+        }
+        changed.add(new MetadataChannel.Setting(name, value));
+        settings = Collections.unmodifiableList(changed);
+    }
+
+    private MetadataChannel getMetadataChannel() throws SQLException {
+        if (!metadataChannelInitialized) {
+            NavigatorPrefetcher.ConnectionFactory factory = replicaFactory != null ? replicaFactory : connectionFactory;
+            if (factory != null && (replicaFactory != null || url.getBooleanOption(ProxyUrl.METADATA_CHANNEL, true))) {
+                DatabaseMetaData metaData = target.getMetaData();
+                String key = UrlUtil.normalizeTargetUrl(metaData.getURL()) + " " + metaData.getUserName()
+                        + " " + url.getReplicaUrls();
+                metadataChannel = MetadataChannel.acquire(key, factory);
+            }
+            metadataChannelInitialized = true;
+        }
+        return metadataChannel;
+    }
+
+    String getProduct() throws SQLException {
+        if (product == null) {
+            product = target.getMetaData().getDatabaseProductName();
+        }
+        return product;
+    }
+
+    /**
+     * Connections to the same target and user share cached metadata.
+     * Returns null for private in-memory databases.
+     */
+    private String getTargetKey() throws SQLException {
+        Connection conn = lockReadConnection();
+        try {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String url = metaData.getURL();
+            if (url == null || UrlUtil.isPrivateInMemoryDatabase(url)) {
+                return null;
+            }
+            return UrlUtil.normalizeTargetUrl(url) + " " + metaData.getUserName();
+        } finally {
+            unlockReadConnection(conn);
+        }
+    }
+
+    MetadataCache getMetadataCache() throws SQLException {
+        if (!metadataCacheInitialized && (!url.getBooleanOption(ProxyUrl.METADATA_CACHE, true) || isShowMetadata())) {
+            // the change markers and prefetches of Snowflake query information_schema, which needs a warehouse
+            metadataCacheInitialized = true;
+        }
+        if (!metadataCacheInitialized) {
+            // markers must be read from the connection providing the cached results,
+            // it is resolved on every check
+            SchemaChangeDetector detector = SchemaChangeDetector.forProduct(new SchemaChangeDetector.ConnectionProvider() {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    return lockReadConnection();
+                }
+
+                @Override
+                public void release(Connection connection) {
+                    unlockReadConnection(connection);
+                }
+            }, getProduct());
+            if (detector != null) {
+                String targetKey = getTargetKey();
+                sharedMetadataCache = targetKey != null;
+                metadataCache = new MetadataCache(sharedMetadataCache ? targetKey : new Object(), detector);
+                if (getMetadataChannel() != null && url.getBooleanOption(ProxyUrl.PREFETCH, true)) {
+                    // the prefetch thread must not use the user's connection
+                    prefetcher = new NavigatorPrefetcher(metadataCache, new SchemaChangeDetector.ConnectionProvider() {
+                        @Override
+                        public Connection getConnection() throws SQLException {
+                            return lockChannelConnection();
+                        }
+
+                        @Override
+                        public void release(Connection connection) {
+                            unlockReadConnection(connection);
+                        }
+                    });
+                }
+            }
+            metadataCacheInitialized = true;
+        }
+        return metadataCache;
+    }
+
+    /**
+     * Returns the number of rows fetched per batch in the background by ProxyResultSet, 0 if disabled.
+     */
+    int getRowPrefetch() {
+        return (int) Math.min(url.getLongOption(ProxyUrl.ROW_PREFETCH, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if values of types unknown to SQL Developer's MySQL mode are converted, see ConvertingResultSet.
+     */
+    boolean isConvertTypes() {
+        return url.getBooleanOption(ProxyUrl.CONVERT_TYPES, true);
+    }
+
+    /**
+     * Returns the heap threshold in bytes for scrollable result sets, 0 if spilling to disk is disabled.
+     */
+    long getSpillThreshold() {
+        return url.getSizeOption(ProxyUrl.SPILL_THRESHOLD, 0);
+    }
+
+    private boolean isSpillable(int resultSetType, int resultSetConcurrency) {
+        return resultSetType == ResultSet.TYPE_SCROLL_INSENSITIVE && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY
+                && getSpillThreshold() > 0;
+    }
+
+    /**
+     * Returns the cache for results of read-only queries, null if disabled (default).
+     */
+    ResultCache getResultCache() {
+        if (!resultCacheInitialized) {
+            long ttl = url.getLongOption(ProxyUrl.RESULT_CACHE_TTL, 0);
+            if (ttl > 0) {
+                resultCache = new ResultCache(ttl, url.getSizeOption(ProxyUrl.RESULT_CACHE_BUDGET, 16L * 1024 * 1024));
+            }
+            resultCacheInitialized = true;
+        }
+        return resultCache;
+    }
+
+    /**
+     * Returns the query with a row limiting clause for maxRows, if supported by the target.
+     * Otherwise the query is returned unchanged and the target driver enforces maxRows.
+     */
+    String limitRows(String sql, int maxRows) throws SQLException {
+        if (maxRows <= 0 || !url.getBooleanOption(ProxyUrl.LIMIT_PUSHDOWN, true) || !ResultCache.isReadOnly(sql)) {
+            return sql;
+        }
+        return rewriterHelper.limitRows(sql, getProduct(), maxRows);
+    }
+
+    /**
+     * Returns true if rows are counted approximately, based on the statistics of the target.
+     */
+    boolean isApproximateRowCount() {
+        return ProxyUrl.APPROXIMATE.equalsIgnoreCase(url.getOption(ProxyUrl.ROW_COUNT, ProxyUrl.EXACT));
+    }
+
+    /**
+     * Returns the query reading the row count from statistics, if the query counts all rows of a table
+     * and rows are counted approximately. Otherwise the query is returned unchanged.
+     */
+    String approximateRowCount(String sql) throws SQLException {
+        if (!isApproximateRowCount()) {
+            return sql;
+        }
+        String product = getProduct();
+        String approximated = rewriterHelper.approximateRowCount(sql, product);
+        if (!approximated.equals(sql) && "SQLite".equals(product) && !hasSqliteStatistics()) {
+            return sql;
+        }
+        return approximated;
+    }
+
+    /**
+     * Returns true if the table sqlite_stat1 exists, i.e. ANALYZE was executed.
+     */
+    private boolean hasSqliteStatistics() throws SQLException {
+        try (Statement stmt = target.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_schema WHERE type = 'table' AND name = 'sqlite_stat1'")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Called after a statement was executed on this connection. Unless the statement is read-only,
+     * cached results are dropped and the schema change markers are checked on next access.
+     *
+     * @param sql the executed statement, null if unknown
+     */
+    void afterUpdate(String sql) {
+        if (sql != null && ResultCache.isReadOnly(sql)) {
+            return;
+        }
+        Matcher use = sql == null ? null : USE.matcher(sql);
+        if (use != null && use.matches()) {
+            // e.g. USE WAREHOUSE, plain USE changes the database
+            setting(use.group(1) == null ? "DATABASE" : use.group(1).toUpperCase(Locale.ROOT), sql);
+        }
+        if (sql != null && END.matcher(sql).matches()) {
+            inTransaction = false;
+        } else if (sql != null && BEGIN.matcher(sql).matches()) {
+            // explicit transaction, also with autocommit on
+            inTransaction = true;
+        } else if (!inTransaction) {
+            try {
+                inTransaction = !target.getAutoCommit();
+            } catch (SQLException e) {
+                inTransaction = true;
+            }
+        }
+        clearResultCache();
+        if (metadataCache != null) {
+            // might be a DDL statement
+            metadataCache.recheck();
+        }
+    }
+
+    /**
+     * Drops the cached results, e.g. when the catalog or schema changed. Unqualified names in the
+     * cached queries might refer to other objects.
+     */
+    private void clearResultCache() {
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+    }
+
+    NavigatorPrefetcher getPrefetcher() throws SQLException {
+        getMetadataCache();
+        return prefetcher;
     }
 
     @Override
     public Statement createStatement() throws SQLException {
-        return target.createStatement();
+        return new ProxyStatement(this, target.createStatement());
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        final String product = target.getMetaData().getDatabaseProductName();
-        return target.prepareStatement(rewriterHelper.rewrite(sql, product));
+        RewriteResult rewrite = rewriterHelper.rewriteStatement(sql, getProduct());
+        if (!rewrite.isNavigatorQuery()) {
+            rewrite = new RewriteResult(sql, approximateRowCount(rewrite.getSql()), null);
+        }
+        final Connection conn = rewrite.isNavigatorQuery() ? lockReadConnection() : target;
+        final String targetSql = rewrite.getSql();
+        try {
+            return new ProxyPreparedStatement(this, prepare(targetSql, () -> conn.prepareStatement(targetSql)), rewrite);
+        } finally {
+            unlockReadConnection(conn);
+        }
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
+        // the procedure might change data, the cache is dropped when it is prepared
+        afterUpdate(null);
         return target.prepareCall(rewriterHelper.rewriteCall(sql));
     }
 
@@ -55,6 +532,10 @@ public class ProxyConnection implements Connection {
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
         target.setAutoCommit(autoCommit);
+        if (autoCommit) {
+            // an open transaction is committed
+            inTransaction = false;
+        }
     }
 
     @Override
@@ -65,15 +546,29 @@ public class ProxyConnection implements Connection {
     @Override
     public void commit() throws SQLException {
         target.commit();
+        inTransaction = false;
     }
 
     @Override
     public void rollback() throws SQLException {
         target.rollback();
+        inTransaction = false;
     }
 
     @Override
     public void close() throws SQLException {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        if (metadataCache != null && !sharedMetadataCache) {
+            // nobody else can use the entries
+            metadataCache.clear();
+        }
+        if (metadataChannel != null) {
+            metadataChannel.release();
+            metadataChannel = null;
+        }
+        MetricsRegistry.getInstance().closeConnection(metrics);
         target.close();
     }
 
@@ -84,7 +579,8 @@ public class ProxyConnection implements Connection {
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
-        return new ProxyDatabaseMetaData(target.getMetaData());
+        // catalog calls are executed via readMetaData(), all other calls on the user's connection
+        return new ProxyDatabaseMetaData(target.getMetaData(), isApproximateRowCount(), metrics, this);
     }
 
     @Override
@@ -100,6 +596,8 @@ public class ProxyConnection implements Connection {
     @Override
     public void setCatalog(String catalog) throws SQLException {
         target.setCatalog(catalog);
+        setting(MetadataChannel.Setting.CATALOG, catalog);
+        clearResultCache();
     }
 
     @Override
@@ -129,16 +627,27 @@ public class ProxyConnection implements Connection {
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-        return target.createStatement(resultSetType, resultSetConcurrency);
+        if (isSpillable(resultSetType, resultSetConcurrency)) {
+            // the target is consumed forward-only, scrolling is provided by ScrollableResultSet
+            return new ProxyStatement(this, target.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY),
+                    getSpillThreshold());
+        }
+        return new ProxyStatement(this, target.createStatement(resultSetType, resultSetConcurrency));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return target.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        if (isSpillable(resultSetType, resultSetConcurrency)) {
+            // the target is consumed forward-only, scrolling is provided by ScrollableResultSet
+            return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)), new RewriteResult(sql, sql, null), getSpillThreshold());
+        }
+        return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, resultSetType, resultSetConcurrency)), new RewriteResult(sql, sql, null));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        afterUpdate(null);
         return target.prepareCall(sql, resultSetType, resultSetConcurrency);
     }
 
@@ -184,32 +693,41 @@ public class ProxyConnection implements Connection {
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        if (isSpillable(resultSetType, resultSetConcurrency)) {
+            return new ProxyStatement(this, target.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+                    resultSetHoldability), getSpillThreshold());
+        }
+        return new ProxyStatement(this, target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return target.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        if (isSpillable(resultSetType, resultSetConcurrency)) {
+            return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY, resultSetHoldability)), new RewriteResult(sql, sql, null), getSpillThreshold());
+        }
+        return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), new RewriteResult(sql, sql, null));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        afterUpdate(null);
         return target.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return target.prepareStatement(sql, autoGeneratedKeys);
+        return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, autoGeneratedKeys)), new RewriteResult(sql, sql, null));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return target.prepareStatement(sql, columnIndexes);
+        return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, columnIndexes)), new RewriteResult(sql, sql, null));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return target.prepareStatement(sql, columnNames);
+        return new ProxyPreparedStatement(this, prepare(sql, () -> target.prepareStatement(sql, columnNames)), new RewriteResult(sql, sql, null));
     }
 
     @Override
@@ -270,6 +788,8 @@ public class ProxyConnection implements Connection {
     @Override
     public void setSchema(String schema) throws SQLException {
         target.setSchema(schema);
+        setting(MetadataChannel.Setting.SCHEMA, schema);
+        clearResultCache();
     }
 
     @Override
@@ -16,14 +16,78 @@
 
 package com.trivadis.jdbcproxy;
 
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.jfr.Events;
+import com.trivadis.jdbcproxy.metrics.Metrics;
+
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ProxyDatabaseMetaData implements DatabaseMetaData {
+    private final static int CARDINALITY = 11;
     private final DatabaseMetaData target;
+    private final boolean approximate;
+    private final Metrics metrics;
+    private final ProxyConnection connection;
 
     public ProxyDatabaseMetaData(DatabaseMetaData databaseMetaData) {
+        this(databaseMetaData, false);
+    }
+
+    /**
+     * @param approximate true to return statistics in getIndexInfo, even if exact values are requested
+     */
+    public ProxyDatabaseMetaData(DatabaseMetaData databaseMetaData, boolean approximate) {
+        this(databaseMetaData, approximate, null);
+    }
+
+    /**
+     * @param metrics metrics of the connection recording the metadata calls, null if not recorded
+     */
+    public ProxyDatabaseMetaData(DatabaseMetaData databaseMetaData, boolean approximate, Metrics metrics) {
+        this(databaseMetaData, approximate, metrics, null);
+    }
+
+    /**
+     * @param connection proxy connection executing the catalog calls via the connection for catalog
+     *                   reads (e.g. a replica), null to execute them via the passed DatabaseMetaData
+     */
+    ProxyDatabaseMetaData(DatabaseMetaData databaseMetaData, boolean approximate, Metrics metrics,
+                          ProxyConnection connection) {
         super();
         target = databaseMetaData;
+        this.approximate = approximate;
+        this.metrics = metrics;
+        this.connection = connection;
+    }
+
+    /**
+     * A catalog call of the target.
+     */
+    interface MetadataCall {
+        ResultSet call(DatabaseMetaData metaData) throws SQLException;
+    }
+
+    /**
+     * Executes a catalog call, records it in the metrics and emits a JFR event, if recording.
+     */
+    private ResultSet record(String method, MetadataCall call) throws SQLException {
+        long start = System.nanoTime();
+        Object event = Events.begin(Events.METADATA);
+        try {
+            return connection == null ? call.call(target) : connection.readMetaData(call);
+        } finally {
+            if (metrics != null) {
+                metrics.recordMetadata(System.nanoTime() - start);
+            }
+            if (event != null) {
+                Events.commitMetadata(event, method);
+            }
+        }
     }
 
     private boolean pretendToBeMySql() throws SQLException {
@@ -636,69 +700,73 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
 
     @Override
     public ResultSet getProcedures(String catalog, String schemaPattern, String procedureNamePattern) throws SQLException {
-        return target.getProcedures(catalog, schemaPattern, procedureNamePattern);
+        return record("getProcedures", md -> md.getProcedures(catalog, schemaPattern, procedureNamePattern));
     }
 
     @Override
     public ResultSet getProcedureColumns(String catalog, String schemaPattern, String procedureNamePattern, String columnNamePattern) throws SQLException {
-        return target.getProcedureColumns(catalog, schemaPattern, procedureNamePattern, columnNamePattern);
+        return record("getProcedureColumns", md -> md.getProcedureColumns(catalog, schemaPattern, procedureNamePattern, columnNamePattern));
     }
 
     @Override
     public ResultSet getTables(String catalog, String schemaPattern, String tableNamePattern, String[] types) throws SQLException {
-        return target.getTables(catalog, schemaPattern, tableNamePattern, types);
+        return record("getTables", md -> md.getTables(catalog, schemaPattern, tableNamePattern, types));
     }
 
     @Override
     public ResultSet getSchemas() throws SQLException {
-        return target.getSchemas();
+        return record("getSchemas", md -> md.getSchemas());
     }
 
     @Override
     public ResultSet getCatalogs() throws SQLException {
-        return target.getCatalogs();
+        return record("getCatalogs", md -> md.getCatalogs());
     }
 
     @Override
     public ResultSet getTableTypes() throws SQLException {
-        return target.getTableTypes();
+        return record("getTableTypes", md -> md.getTableTypes());
     }
 
     @Override
     public ResultSet getColumns(String catalog, String schemaPattern, String tableNamePattern, String columnNamePattern) throws SQLException {
-        return target.getColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern);
+        return record("getColumns", md -> md.getColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern));
     }
 
     @Override
     public ResultSet getColumnPrivileges(String catalog, String schema, String table, String columnNamePattern) throws SQLException {
-        return target.getColumnPrivileges(catalog, schema, table, columnNamePattern);
+        return record("getColumnPrivileges", md -> md.getColumnPrivileges(catalog, schema, table, columnNamePattern));
     }
 
     @Override
     public ResultSet getTablePrivileges(String catalog, String schemaPattern, String tableNamePattern) throws SQLException {
-        return target.getTablePrivileges(catalog, schemaPattern, tableNamePattern);
+        return record("getTablePrivileges", md -> md.getTablePrivileges(catalog, schemaPattern, tableNamePattern));
     }
 
     @Override
     public ResultSet getBestRowIdentifier(String catalog, String schema, String table, int scope, boolean nullable) throws SQLException {
-        return target.getBestRowIdentifier(catalog, schema, table, scope, nullable);
+        return record("getBestRowIdentifier", md -> md.getBestRowIdentifier(catalog, schema, table, scope, nullable));
     }
 
     @Override
     public ResultSet getVersionColumns(String catalog, String schema, String table) throws SQLException {
-        return target.getVersionColumns(catalog, schema, table);
+        return record("getVersionColumns", md -> md.getVersionColumns(catalog, schema, table));
     }
 
     @Override
     public ResultSet getPrimaryKeys(String catalog, String schema, String table) throws SQLException {
-        return target.getPrimaryKeys(catalog, schema, table);
+        return record("getPrimaryKeys", md -> md.getPrimaryKeys(catalog, schema, table));
     }
 
     @Override
     public ResultSet getImportedKeys(String catalog, String schema, String table) throws SQLException {
+        return record("getImportedKeys", md -> importedKeys(md, catalog, schema, table));
+    }
+
+    private ResultSet importedKeys(DatabaseMetaData md, String catalog, String schema, String table) throws SQLException {
         if (getTargetDatabaseProductName().equals("SQLite")) {
             // workaround for issue #1 - simplified stmt to show foreign key relationships in model of SQLDev
-            PreparedStatement stmt = target.getConnection().prepareStatement(
+            PreparedStatement stmt = md.getConnection().prepareStatement(
                     "SELECT ? AS PKTABLE_CAT,\n" +
                     "       ? AS PKTABLE_SCHEM,\n" +
                     "       fkbase.`table` AS PKTABLE_NAME,\n" +
@@ -732,28 +800,88 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
             stmt.setString(11, table);
             return stmt.executeQuery();
         } else {
-            return target.getImportedKeys(catalog, schema, table);
+            return md.getImportedKeys(catalog, schema, table);
         }
     }
 
     @Override
     public ResultSet getExportedKeys(String catalog, String schema, String table) throws SQLException {
-        return target.getExportedKeys(catalog, schema, table);
+        return record("getExportedKeys", md -> md.getExportedKeys(catalog, schema, table));
     }
 
     @Override
     public ResultSet getCrossReference(String parentCatalog, String parentSchema, String parentTable, String foreignCatalog, String foreignSchema, String foreignTable) throws SQLException {
-        return target.getCrossReference(parentCatalog, parentSchema, parentTable, foreignCatalog, foreignSchema, foreignTable);
+        return record("getCrossReference", md -> md.getCrossReference(parentCatalog, parentSchema, parentTable, foreignCatalog, foreignSchema, foreignTable));
     }
 
     @Override
     public ResultSet getTypeInfo() throws SQLException {
-        return target.getTypeInfo();
+        return record("getTypeInfo", md -> md.getTypeInfo());
     }
 
     @Override
     public ResultSet getIndexInfo(String catalog, String schema, String table, boolean unique, boolean approximate) throws SQLException {
-        return target.getIndexInfo(catalog, schema, table, unique, approximate);
+        return record("getIndexInfo", md -> indexInfo(md, catalog, schema, table, unique, approximate));
+    }
+
+    private ResultSet indexInfo(DatabaseMetaData md, String catalog, String schema, String table, boolean unique,
+                                boolean approximate) throws SQLException {
+        ResultSet rs = md.getIndexInfo(catalog, schema, table, unique, approximate || this.approximate);
+        if ((approximate || this.approximate) && getTargetDatabaseProductName().equals("SQLite")) {
+            return withSqliteCardinality(md.getConnection(), rs, table);
+        }
+        return rs;
+    }
+
+    /**
+     * The SQLite driver does not report the cardinality of indexes. The number of distinct keys is
+     * estimated from sqlite_stat1, if available. Its column stat contains the number of rows of the
+     * table followed by the average number of rows per distinct value of the first 1..n index columns.
+     */
+    private ResultSet withSqliteCardinality(Connection conn, ResultSet rs, String table) throws SQLException {
+        Map<String, String> stats = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet exists = stmt.executeQuery("SELECT 1 FROM sqlite_schema WHERE type = 'table' AND name = 'sqlite_stat1'")) {
+            if (!exists.next()) {
+                return rs;
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT idx, stat FROM sqlite_stat1 WHERE tbl = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet statRs = stmt.executeQuery()) {
+                while (statRs.next()) {
+                    stats.put(statRs.getString(1), statRs.getString(2));
+                }
+            }
+        }
+        CachedResultSetMetaData metaData = new CachedResultSetMetaData(rs.getMetaData());
+        List<Object[]> rows = new ArrayList<>();
+        try {
+            while (rs.next()) {
+                Object[] row = new Object[metaData.getColumnCount()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                String stat = stats.get(rs.getString("INDEX_NAME"));
+                if (stat != null && row.length >= CARDINALITY) {
+                    String[] values = stat.split(" ");
+                    int position = rs.getInt("ORDINAL_POSITION");
+                    if (position >= 1 && position < values.length) {
+                        try {
+                            long rowCount = Long.parseLong(values[0]);
+                            long rowsPerKey = Math.max(1, Long.parseLong(values[position]));
+                            row[CARDINALITY - 1] = rowCount / rowsPerKey;
+                        } catch (NumberFormatException e) {
+                            // e.g. "unordered" flags, keep the value of the driver
+                        }
+                    }
+                }
+                rows.add(row);
+            }
+        } finally {
+            rs.close();
+        }
+        return CachedResult.ofRows(metaData, rows).newResultSet(null);
     }
 
     @Override
@@ -818,12 +946,13 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
 
     @Override
     public ResultSet getUDTs(String catalog, String schemaPattern, String typeNamePattern, int[] types) throws SQLException {
-        return target.getUDTs(catalog, schemaPattern, typeNamePattern, types);
+        return record("getUDTs", md -> md.getUDTs(catalog, schemaPattern, typeNamePattern, types));
     }
 
     @Override
     public Connection getConnection() throws SQLException {
-        return target.getConnection();
+        // the connection of the target might be shared, see MetadataChannel
+        return connection != null ? connection : target.getConnection();
     }
 
     @Override
@@ -848,17 +977,17 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
 
     @Override
     public ResultSet getSuperTypes(String catalog, String schemaPattern, String typeNamePattern) throws SQLException {
-        return target.getSuperTypes(catalog, schemaPattern, typeNamePattern);
+        return record("getSuperTypes", md -> md.getSuperTypes(catalog, schemaPattern, typeNamePattern));
     }
 
     @Override
     public ResultSet getSuperTables(String catalog, String schemaPattern, String tableNamePattern) throws SQLException {
-        return target.getSuperTables(catalog, schemaPattern, tableNamePattern);
+        return record("getSuperTables", md -> md.getSuperTables(catalog, schemaPattern, tableNamePattern));
     }
 
     @Override
     public ResultSet getAttributes(String catalog, String schemaPattern, String typeNamePattern, String attributeNamePattern) throws SQLException {
-        return target.getAttributes(catalog, schemaPattern, typeNamePattern, attributeNamePattern);
+        return record("getAttributes", md -> md.getAttributes(catalog, schemaPattern, typeNamePattern, attributeNamePattern));
     }
 
     @Override
@@ -919,7 +1048,7 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
 
     @Override
     public ResultSet getSchemas(String catalog, String schemaPattern) throws SQLException {
-        return target.getSchemas();
+        return record("getSchemas", md -> md.getSchemas());
     }
 
     @Override
@@ -934,22 +1063,22 @@ public class ProxyDatabaseMetaData implements DatabaseMetaData {
 
     @Override
     public ResultSet getClientInfoProperties() throws SQLException {
-        return target.getClientInfoProperties();
+        return record("getClientInfoProperties", md -> md.getClientInfoProperties());
     }
 
     @Override
     public ResultSet getFunctions(String catalog, String schemaPattern, String functionNamePattern) throws SQLException {
-        return target.getFunctions(catalog, schemaPattern, functionNamePattern);
+        return record("getFunctions", md -> md.getFunctions(catalog, schemaPattern, functionNamePattern));
     }
 
     @Override
     public ResultSet getFunctionColumns(String catalog, String schemaPattern, String functionNamePattern, String columnNamePattern) throws SQLException {
-        return target.getFunctionColumns(catalog, schemaPattern, functionNamePattern, columnNamePattern);
+        return record("getFunctionColumns", md -> md.getFunctionColumns(catalog, schemaPattern, functionNamePattern, columnNamePattern));
     }
 
     @Override
     public ResultSet getPseudoColumns(String catalog, String schemaPattern, String tableNamePattern, String columnNamePattern) throws SQLException {
-        return target.getPseudoColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern);
+        return record("getPseudoColumns", md -> md.getPseudoColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern));
     }
 
     @Override
@@ -16,12 +16,23 @@
 
 package com.trivadis.jdbcproxy;
 
+import com.trivadis.jdbcproxy.cache.NavigatorPrefetcher;
+import com.trivadis.jdbcproxy.jfr.Events;
+import com.trivadis.jdbcproxy.metrics.MetricsRegistry;
+
 import java.sql.*;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class ProxyDriver implements Driver {
+    private final static String MYSQL_SUB_PROTOCOL = "mysql";
+    private final static Map<String, Driver> routes = new ConcurrentHashMap<>();
+
     public ProxyDriver() {
         super();
     }
@@ -29,41 +40,144 @@ public class ProxyDriver implements Driver {
     @Override
     public Connection connect(String url, Properties info) throws SQLException {
         if (acceptsURL(url)) {
-            if (url.startsWith("jdbc:proxy:")) {
-                String targetUrl = url.substring("jdbc:proxy:".length());
-                if (targetUrl.startsWith("jdbc:mysql:")) {
-                    return connect(targetUrl, info);
-                } else {
-                    Driver targetDriver;
-                    targetDriver = DriverManager.getDriver(targetUrl);
-                    return new ProxyConnection(targetDriver.connect(targetUrl, info));
-                }
+            ProxyUrl proxyUrl;
+            try {
+                proxyUrl = ProxyUrl.parse(url);
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("Cannot connect. JDBC URL " + url + " is not supported. " + e.getMessage());
+            }
+            // superfluous parameters (port, database) and proxy options are not passed to the target
+            String targetUrl = proxyUrl.getTargetUrl();
+            long start = System.nanoTime();
+            Object event = Events.begin(Events.CONNECT);
+            ProxyConnection conn;
+            if (proxyUrl.getTargetUrls().size() > 1) {
+                TargetGroup group = getTargetGroup(proxyUrl, info);
+                conn = new ProxyConnection(group.connect(), proxyUrl, group::connect, replicaFactory(proxyUrl, info));
             } else {
-                // original MySQL JDBC URL
-                Enumeration<Driver> drivers = DriverManager.getDrivers();
-                while (drivers.hasMoreElements()) {
-                    Driver targetDriver = drivers.nextElement();
-                    if (targetDriver instanceof com.mysql.cj.jdbc.Driver) {
-                        if (url.startsWith("jdbc:mysql://jdbc:")) {
-                            // make proxy URL, remove superfluous parameters (port, database)
-                            String targetUrl = "jdbc:proxy:" + UrlUtil.extractTargetUrl(url);
-                            return connect(targetUrl, info);
-                        } else {
-                            return new ProxyConnection(targetDriver.connect(url, info));
-                        }
-                    }
-                }
-                throw new SQLException("Cannot connect. Cannot find MySQL driver.");
+                Driver targetDriver = resolveDriver(targetUrl);
+                conn = new ProxyConnection(targetDriver.connect(targetUrl, info), proxyUrl,
+                        connectionFactory(targetDriver, targetUrl, info), replicaFactory(proxyUrl, info));
+            }
+            conn.getMetrics().recordConnect(System.nanoTime() - start);
+            if (event != null) {
+                Events.commitConnect(event, UrlUtil.sanitizeTargetUrl(targetUrl));
             }
+            return conn;
         } else {
             throw new SQLException("Cannot connect. JDBC URL " + url + " is not supported.");
         }
     }
 
+    private Driver resolveDriver(String targetUrl) throws SQLException {
+        return targetUrl.startsWith(ProxyUrl.MYSQL_PREFIX) ? getMySqlDriver(targetUrl) : getTargetDriver(targetUrl);
+    }
+
+    /**
+     * Resolves the target driver via the {@link TargetDriverRegistry} on first use of a sub-protocol.
+     * Subsequent calls are served from the routing table. The DriverManager is asked only for
+     * sub-protocols without provider, since it loads all drivers on the class path.
+     */
+    private Driver getTargetDriver(String targetUrl) throws SQLException {
+        String subProtocol = TargetDriverRegistry.getSubProtocol(targetUrl);
+        Driver targetDriver = subProtocol == null ? null : routes.get(subProtocol);
+        if (targetDriver != null && targetDriver.acceptsURL(targetUrl)) {
+            return targetDriver;
+        }
+        targetDriver = TargetDriverRegistry.newDriver(targetUrl);
+        if (targetDriver == null || !targetDriver.acceptsURL(targetUrl)) {
+            targetDriver = DriverManager.getDriver(targetUrl);
+        }
+        if (subProtocol != null) {
+            routes.put(subProtocol, targetDriver);
+        }
+        return targetDriver;
+    }
+
+    /**
+     * Resolves the MySQL driver. The DriverManager cannot be asked for it,
+     * since the proxy driver accepts MySQL URLs as well.
+     */
+    private Driver getMySqlDriver(String url) throws SQLException {
+        Driver targetDriver = routes.get(MYSQL_SUB_PROTOCOL);
+        if (targetDriver == null) {
+            targetDriver = TargetDriverRegistry.newDriver(url);
+            if (targetDriver == null) {
+                throw new SQLException("Cannot connect. Cannot find MySQL driver.");
+            }
+            routes.put(MYSQL_SUB_PROTOCOL, targetDriver);
+        }
+        return targetDriver;
+    }
+
+    private NavigatorPrefetcher.ConnectionFactory connectionFactory(Driver targetDriver, String targetUrl, Properties info) {
+        if (UrlUtil.isPrivateInMemoryDatabase(targetUrl)) {
+            return null;
+        }
+        final Properties props = new Properties();
+        if (info != null) {
+            props.putAll(info);
+        }
+        return () -> targetDriver.connect(targetUrl, props);
+    }
+
+    private TargetGroup getTargetGroup(ProxyUrl proxyUrl, Properties info) throws SQLException {
+        List<String> targetUrls = proxyUrl.getTargetUrls();
+        List<NavigatorPrefetcher.ConnectionFactory> factories = new ArrayList<>();
+        for (String url : targetUrls) {
+            final Driver driver = resolveDriver(url);
+            final Properties props = new Properties();
+            if (info != null) {
+                props.putAll(info);
+            }
+            factories.add(() -> driver.connect(url, props));
+        }
+        return TargetGroup.getInstance(targetUrls, factories, info,
+                proxyUrl.getOption(ProxyUrl.BALANCE, TargetGroup.ROUND_ROBIN),
+                proxyUrl.getLongOption(ProxyUrl.PROBE_INTERVAL, 10_000));
+    }
+
+    /**
+     * Returns a factory connecting to one of the read replicas, null if no replicas are defined.
+     * Replicas are tried in turn, starting with the one after the last successfully used.
+     */
+    private NavigatorPrefetcher.ConnectionFactory replicaFactory(ProxyUrl proxyUrl, Properties info) throws SQLException {
+        List<String> replicaUrls = proxyUrl.getReplicaUrls();
+        if (replicaUrls.isEmpty()) {
+            return null;
+        }
+        final List<NavigatorPrefetcher.ConnectionFactory> factories = new ArrayList<>();
+        for (String replicaUrl : replicaUrls) {
+            NavigatorPrefetcher.ConnectionFactory factory = connectionFactory(resolveDriver(replicaUrl), replicaUrl, info);
+            if (factory != null) {
+                factories.add(factory);
+            }
+        }
+        if (factories.isEmpty()) {
+            return null;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        return () -> {
+            SQLException error = null;
+            int start = next.get();
+            for (int i = 0; i < factories.size(); i++) {
+                int index = (start + i) % factories.size();
+                try {
+                    Connection conn = factories.get(index).connect();
+                    next.set((index + 1) % factories.size());
+                    return conn;
+                } catch (SQLException e) {
+                    error = e;
+                }
+            }
+            throw error;
+        };
+    }
+
     @Override
     public boolean acceptsURL(String url) {
         if (url != null) {
-            return url.startsWith("jdbc:proxy:") || url.startsWith("jdbc:mysql:");
+            return url.startsWith(ProxyUrl.PROXY_PREFIX) || url.startsWith(ProxyUrl.MYSQL_PREFIX);
         }
         return false;
     }
@@ -96,13 +210,11 @@ public class ProxyDriver implements Driver {
     static {
         try {
             DriverManager.registerDriver(new ProxyDriver());
-            // ensure all target drivers are registered upfront
-            // this might lead to duplicate registered drivers, but that should not be a big problem
-            DriverManager.registerDriver(new com.mysql.cj.jdbc.Driver());
-            DriverManager.registerDriver(new net.snowflake.client.jdbc.SnowflakeDriver());
-            DriverManager.registerDriver(new org.postgresql.Driver());
-            DriverManager.registerDriver(new org.sqlite.JDBC());
-            DriverManager.registerDriver(new org.h2.Driver());
+            // target drivers are registered on first use, see TargetDriverRegistry
+            // initializing the platform MBean server is slow, it must not delay the driver registration
+            Thread jmx = new Thread(MetricsRegistry::register, "jdbc-proxy-jmx-registration");
+            jmx.setDaemon(true);
+            jmx.start();
         } catch (SQLException e) {
             throw new RuntimeException("Drivers cannot be registered.");
         }
@@ -0,0 +1,589 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.cache.MetadataCache;
+import com.trivadis.jdbcproxy.cache.NavigatorPrefetcher;
+import com.trivadis.jdbcproxy.cache.ResultCache;
+import com.trivadis.jdbcproxy.log.QueryTrace;
+import com.trivadis.jdbcproxy.rewrite.RewriteResult;
+import com.trivadis.jdbcproxy.rewrite.SnowflakeShowMetadata;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+public class ProxyPreparedStatement extends ProxyStatement implements PreparedStatement {
+    private final static Object UNKNOWN = new Object();
+    private final PreparedStatement target;
+    private final RewriteResult rewrite;
+    private final MetadataCache metadataCache;
+    private final NavigatorPrefetcher prefetcher;
+    private final List<Object> binds = new ArrayList<>();
+    private boolean typedBinds = false;
+    private PreparedStatement limitedTarget;
+    private String limitedSql;
+    private long prepareNanos;
+
+    ProxyPreparedStatement(ProxyConnection connection, PreparedStatement statement, RewriteResult rewrite) throws SQLException {
+        this(connection, statement, rewrite, 0);
+    }
+
+    /**
+     * @param spillThreshold heap threshold in bytes of the {@link ScrollableResultSet} returned for
+     *                       results, 0 to return forward-only result sets of the target
+     */
+    ProxyPreparedStatement(ProxyConnection connection, PreparedStatement statement, RewriteResult rewrite,
+                           long spillThreshold) throws SQLException {
+        super(connection, statement, spillThreshold);
+        this.target = statement;
+        this.rewrite = rewrite;
+        this.metadataCache = connection.getMetadataCache();
+        this.prefetcher = connection.getPrefetcher();
+        this.prepareNanos = connection.getLastPrepareNanos();
+    }
+
+    @Override
+    protected boolean isNavigatorQuery() {
+        return rewrite.isNavigatorQuery();
+    }
+
+    /**
+     * Starts the trace of an execution with the bind values. The prepare duration is
+     * attributed to the first execution only.
+     */
+    @Override
+    protected QueryTrace startTrace(String originalSql, String sql) {
+        List<Object> values = new ArrayList<>(binds.size());
+        for (Object value : binds) {
+            values.add(value == UNKNOWN ? QueryTrace.UNKNOWN : value);
+        }
+        QueryTrace trace = connection.startTrace(originalSql, sql, values, prepareNanos);
+        prepareNanos = 0;
+        return trace;
+    }
+
+    private void bind(int parameterIndex, Object value) {
+        while (binds.size() < parameterIndex) {
+            binds.add(null);
+        }
+        binds.set(parameterIndex - 1, value);
+    }
+
+    private boolean isCacheable() throws SQLException {
+        return metadataCache != null && rewrite.isNavigatorQuery() && !binds.contains(UNKNOWN)
+                && !connection.isInTransaction();
+    }
+
+    private void afterUpdate() {
+        afterUpdate(rewrite.getSql());
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        closeOpenResultSet();
+        resultSet = null;
+        final String show = rewrite.isNavigatorQuery() && connection.isShowMetadata()
+                ? SnowflakeShowMetadata.show(rewrite.getRule(), binds) : null;
+        final String sql = show == null ? rewrite.getSql() : show;
+        final MetadataCache.Loader loader = read(show == null ? target::executeQuery : () -> executeShow(show));
+        if (isCacheable()) {
+            final boolean[] loaded = {false};
+            resultSet = metadataCache.executeQuery(rewrite.getSql(), binds, this, () -> {
+                loaded[0] = true;
+                return meter(track(rewrite.getOriginalSql(), sql, loader::executeQuery));
+            });
+            if (!loaded[0]) {
+                traceCached(rewrite.getOriginalSql(), sql);
+            }
+            if (prefetcher != null) {
+                prefetcher.observe(rewrite.getRule(), rewrite.getSql(), binds);
+            }
+            return resultSet;
+        }
+        if (spillThreshold > 0) {
+            return executeScrollable(rewrite.getOriginalSql(), sql, loader);
+        }
+        if (show != null) {
+            return executeQuery(rewrite.getOriginalSql(), show, null, loader);
+        }
+        final PreparedStatement stmt = rewrite.isNavigatorQuery() ? target : prepareLimited();
+        final String limited = stmt == target ? rewrite.getSql() : limitedSql;
+        return executeQuery(rewrite.getOriginalSql(), limited, binds.contains(UNKNOWN) ? null : binds, read(stmt::executeQuery));
+    }
+
+    /**
+     * Navigator queries might be prepared on the connection of the metadata channel, which is
+     * shared with other threads. It is locked until the result is read completely.
+     */
+    private MetadataCache.Loader read(MetadataCache.Loader loader) {
+        return rewrite.isNavigatorQuery() ? () -> connection.executeRead(target, loader) : loader;
+    }
+
+    /**
+     * Executes the SHOW command on the connection of the target and reshapes its result via
+     * RESULT_SCAN. The rows are read completely, results of SHOW commands are small. The column
+     * names of a DESCRIBE command are read in the order of the rows to number the columns.
+     */
+    private ResultSet executeShow(String show) throws SQLException {
+        try (Statement stmt = target.getConnection().createStatement()) {
+            stmt.execute(show);
+            List<String> columns = new ArrayList<>();
+            if (SnowflakeShowMetadata.isDescribe(show)) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rs.next()) {
+                        columns.add(rs.getString("name"));
+                    }
+                }
+            }
+            String projection = SnowflakeShowMetadata.projection(rewrite.getRule(), binds, queryId(stmt), columns);
+            try (ResultSet rs = stmt.executeQuery(projection)) {
+                return CachedResult.read(rs, new CachedResultSetMetaData(rs.getMetaData()), Integer.MAX_VALUE)
+                        .newResultSet(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the query id of the last statement executed via the passed Snowflake statement.
+     * The Snowflake driver is optional at runtime, it is called via reflection. Falls back to
+     * LAST_QUERY_ID() of the session, which is ambiguous when the connection is shared.
+     */
+    private static String queryId(Statement stmt) throws SQLException {
+        try {
+            Class<?> type = Class.forName("net.snowflake.client.jdbc.SnowflakeStatement");
+            return (String) type.getMethod("getQueryID").invoke(stmt.unwrap(type));
+        } catch (ReflectiveOperationException | SQLException e) {
+            try (ResultSet rs = stmt.executeQuery("SELECT LAST_QUERY_ID()")) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * Returns a statement with the max rows pushed into the SQL (see {@link ProxyConnection#limitRows}).
+     * The bind values are copied. Returns the target, if the SQL cannot be changed or the bind values
+     * cannot be copied. The statement is prepared on the connection of the target and is kept
+     * for subsequent executions with the same max rows.
+     */
+    private PreparedStatement prepareLimited() throws SQLException {
+        int maxRows = getMaxRows();
+        if (maxRows <= 0 || typedBinds || binds.contains(UNKNOWN) || binds.contains(null)) {
+            return target;
+        }
+        String sql = connection.limitRows(rewrite.getSql(), maxRows);
+        if (sql.equals(rewrite.getSql())) {
+            return target;
+        }
+        if (!sql.equals(limitedSql)) {
+            closeLimited();
+            limitedTarget = target.getConnection().prepareStatement(sql);
+            limitedSql = sql;
+        }
+        limitedTarget.setMaxRows(maxRows);
+        limitedTarget.setFetchSize(Math.min(target.getFetchSize(), maxRows));
+        limitedTarget.setQueryTimeout(target.getQueryTimeout());
+        for (int i = 0; i < binds.size(); i++) {
+            limitedTarget.setObject(i + 1, binds.get(i));
+        }
+        return limitedTarget;
+    }
+
+    private void closeLimited() throws SQLException {
+        if (limitedTarget != null) {
+            limitedTarget.close();
+            limitedTarget = null;
+            limitedSql = null;
+        }
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        resultSet = null;
+        try {
+            return track(rewrite.getOriginalSql(), rewrite.getSql(), target::executeUpdate);
+        } finally {
+            afterUpdate();
+        }
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        target.setNull(parameterIndex, sqlType);
+        bind(parameterIndex, null);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        target.setBoolean(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        target.setByte(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        target.setShort(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        target.setInt(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        target.setLong(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        target.setFloat(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        target.setDouble(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        target.setBigDecimal(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        target.setString(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        target.setBytes(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        target.setDate(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        target.setTime(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        target.setTimestamp(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        target.setAsciiStream(parameterIndex, x, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    @Deprecated
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        target.setUnicodeStream(parameterIndex, x, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        target.setBinaryStream(parameterIndex, x, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        target.clearParameters();
+        binds.clear();
+        typedBinds = false;
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        target.setObject(parameterIndex, x, targetSqlType);
+        bind(parameterIndex, x);
+        typedBinds = true;
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        target.setObject(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        if (rewrite.isNavigatorQuery() || ResultCache.isReadOnly(rewrite.getSql())) {
+            // navigator queries might be prepared on the metadata channel, which is locked by executeQuery(),
+            // other queries are converted, prefetched and cached like in executeQuery()
+            resultSet = executeQuery();
+            return true;
+        }
+        resultSet = null;
+        try {
+            return track(rewrite.getOriginalSql(), rewrite.getSql(), target::execute);
+        } finally {
+            afterUpdate();
+        }
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        target.addBatch();
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        target.setCharacterStream(parameterIndex, reader, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        target.setRef(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        target.setBlob(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        target.setClob(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        target.setArray(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return target.getMetaData();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        target.setDate(parameterIndex, x, cal);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        target.setTime(parameterIndex, x, cal);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        target.setTimestamp(parameterIndex, x, cal);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        target.setNull(parameterIndex, sqlType, typeName);
+        bind(parameterIndex, null);
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        target.setURL(parameterIndex, x);
+        bind(parameterIndex, x);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return target.getParameterMetaData();
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        target.setRowId(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        target.setNString(parameterIndex, value);
+        bind(parameterIndex, value);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        target.setNCharacterStream(parameterIndex, value, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        target.setNClob(parameterIndex, value);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        target.setClob(parameterIndex, reader, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        target.setBlob(parameterIndex, inputStream, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        target.setNClob(parameterIndex, reader, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        target.setSQLXML(parameterIndex, xmlObject);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        target.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+        bind(parameterIndex, x);
+        typedBinds = true;
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        target.setAsciiStream(parameterIndex, x, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        target.setBinaryStream(parameterIndex, x, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        target.setCharacterStream(parameterIndex, reader, length);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        target.setAsciiStream(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        target.setBinaryStream(parameterIndex, x);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        target.setCharacterStream(parameterIndex, reader);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        target.setNCharacterStream(parameterIndex, value);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        target.setClob(parameterIndex, reader);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        target.setBlob(parameterIndex, inputStream);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        target.setNClob(parameterIndex, reader);
+        bind(parameterIndex, UNKNOWN);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            // stops the background fetch of a result set reading from the limited statement
+            closeOpenResultSet();
+            closeLimited();
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        if (limitedTarget != null) {
+            limitedTarget.cancel();
+        }
+        super.cancel();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        resultSet = null;
+        try {
+            return track(null, target::executeBatch);
+        } finally {
+            afterUpdate();
+        }
+    }
+}
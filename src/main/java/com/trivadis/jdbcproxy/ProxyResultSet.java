@@ -0,0 +1,343 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forward-only result set fetching rows of the target result set in batches on a background
+ * thread. While the consumer processes a batch, the next one is fetched (double buffering).
+ * At most two batches are held in memory. Values are read via getObject and converted on access.
+ * Use {@link #wrap(ResultSet, Statement, int)} to create an instance.
+ */
+public class ProxyResultSet extends DetachedResultSet {
+    private final static ExecutorService fetcher = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "jdbc-proxy-row-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final static Object END = new Object();
+    private final static long OFFER_MILLIS = 100;
+    private final int batchSize;
+    private final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(1);
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    // set by the first of close() and the end of the fetch, the second one closes the target
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final Future<?> fetch;
+    private volatile boolean closed = false;
+    private ResultSet batch;
+    private int row = 0;
+    private boolean afterLast = false;
+    private int fetchSize = 0;
+
+    private ProxyResultSet(ResultSet target, Statement statement, CachedResultSetMetaData metaData, int batchSize,
+                           CachedResult first) {
+        super(target, statement, metaData);
+        this.batchSize = batchSize;
+        if (first != null) {
+            batch = first.newResultSet(statement);
+        }
+        fetch = fetcher.submit(this::fetchAll);
+    }
+
+    /**
+     * Returns a result set prefetching batches of batchSize rows in the background. The target result
+     * set is returned, if it is scrollable or contains column types which cannot be detached (e.g. LOBs).
+     */
+    public static ResultSet wrap(ResultSet target, Statement statement, int batchSize) throws SQLException {
+        if (target == null || batchSize <= 0 || target.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+            return target;
+        }
+        ResultSetMetaData targetMetaData = target.getMetaData();
+        if (!isDetachable(targetMetaData)) {
+            return target;
+        }
+        return new ProxyResultSet(target, statement, new CachedResultSetMetaData(targetMetaData), batchSize, null);
+    }
+
+    /**
+     * Returns a result set starting with the rows already read from the target result set.
+     * The remaining rows are fetched in the background in batches of batchSize rows.
+     */
+    static ResultSet resume(CachedResult first, ResultSet target, Statement statement, int batchSize) {
+        return new ProxyResultSet(target, statement, first.getMetaData(), batchSize, first);
+    }
+
+    /**
+     * Returns true if all values can be copied via getObject and used after the
+     * target result set is closed. This is not the case for LOBs, arrays, etc.
+     */
+    static boolean isDetachable(ResultSetMetaData metaData) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            switch (metaData.getColumnType(i)) {
+                case Types.BLOB:
+                case Types.CLOB:
+                case Types.NCLOB:
+                case Types.ARRAY:
+                case Types.STRUCT:
+                case Types.REF:
+                case Types.REF_CURSOR:
+                case Types.SQLXML:
+                case Types.DATALINK:
+                case Types.JAVA_OBJECT:
+                    return false;
+                default:
+                    // supported
+            }
+        }
+        return true;
+    }
+
+    private void fetchAll() {
+        if (!started.compareAndSet(false, true)) {
+            // closed before the task started
+            return;
+        }
+        try {
+            CachedResult result;
+            do {
+                result = CachedResult.read(target, metaData, batchSize);
+                if (result.getRowCount() > 0 && !offer(result)) {
+                    return;
+                }
+            } while (result.getRowCount() == batchSize && !closed);
+            offer(END);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                offer(e);
+            } catch (InterruptedException ie) {
+                // closed
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Closes the target result set, when called the second time, i.e. after the fetch ended
+     * and this result set was closed.
+     */
+    private void release() {
+        if (!released.compareAndSet(false, true)) {
+            try {
+                target.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Passes a batch to the consumer. Returns false, if the result set was closed meanwhile.
+     */
+    private boolean offer(Object next) throws InterruptedException {
+        while (!closed) {
+            if (batches.offer(next, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Result set is closed.");
+        }
+    }
+
+    @Override
+    protected ResultSet current() throws SQLException {
+        checkOpen();
+        if (batch == null || afterLast) {
+            throw new SQLException("Cursor is not positioned on a row.");
+        }
+        return batch;
+    }
+
+    private SQLException forwardOnly() {
+        return new SQLException("Result set is TYPE_FORWARD_ONLY.");
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        checkOpen();
+        while (!afterLast) {
+            if (batch != null && batch.next()) {
+                row++;
+                return true;
+            }
+            Object next;
+            try {
+                next = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for rows.", e);
+            }
+            if (next == END) {
+                afterLast = true;
+            } else if (next instanceof SQLException) {
+                afterLast = true;
+                throw (SQLException) next;
+            } else if (next instanceof RuntimeException) {
+                afterLast = true;
+                throw new SQLException("Cannot fetch rows.", (RuntimeException) next);
+            } else {
+                batch = ((CachedResult) next).newResultSet(statement);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the background fetch without waiting for it. A batch currently fetched is discarded
+     * by the fetch thread, which then closes the target result set. Otherwise, the target result
+     * set is closed immediately.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        batches.clear();
+        batch = null;
+        if (started.compareAndSet(false, true)) {
+            fetch.cancel(false);
+            target.close();
+        } else {
+            release();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isBeforeFirst() throws SQLException {
+        checkOpen();
+        return row == 0 && !afterLast;
+    }
+
+    @Override
+    public boolean isAfterLast() throws SQLException {
+        checkOpen();
+        return afterLast && row > 0;
+    }
+
+    @Override
+    public boolean isFirst() throws SQLException {
+        checkOpen();
+        return row == 1 && !afterLast;
+    }
+
+    @Override
+    public boolean isLast() throws SQLException {
+        throw new SQLFeatureNotSupportedException("isLast is not supported for prefetched result sets.");
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public boolean first() throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public int getRow() throws SQLException {
+        checkOpen();
+        return afterLast ? 0 : row;
+    }
+
+    @Override
+    public boolean absolute(int rowNumber) throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public boolean relative(int rows) throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public boolean previous() throws SQLException {
+        throw forwardOnly();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        if (direction != ResultSet.FETCH_FORWARD) {
+            throw forwardOnly();
+        }
+    }
+
+    @Override
+    public int getFetchDirection() {
+        return ResultSet.FETCH_FORWARD;
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (rows < 0) {
+            throw new SQLException("Invalid fetch size " + rows + ".");
+        }
+        // rows are fetched in batches of batchSize, the target is in use by the background thread
+        fetchSize = rows;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public int getType() {
+        return ResultSet.TYPE_FORWARD_ONLY;
+    }
+}
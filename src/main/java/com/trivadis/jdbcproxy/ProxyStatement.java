@@ -0,0 +1,582 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.cache.MetadataCache;
+import com.trivadis.jdbcproxy.cache.ResultCache;
+import com.trivadis.jdbcproxy.jfr.Events;
+import com.trivadis.jdbcproxy.log.QueryTrace;
+import com.trivadis.jdbcproxy.rewrite.RewriteResult;
+
+import java.sql.*;
+import java.util.Collections;
+import java.util.List;
+
+public class ProxyStatement implements Statement {
+    protected final ProxyConnection connection;
+    protected final long spillThreshold;
+    private final Statement target;
+    // result of the last execution provided by the proxy, the target has no further results
+    protected ResultSet resultSet;
+    // current result of the target, wrapped by getResultSet()
+    private ResultSet targetResultSet;
+    private MeteredResultSet meteredResultSet;
+    private ResultSet openResultSet;
+    private String lastSql;
+    private QueryTrace trace;
+    private boolean closed = false;
+
+    ProxyStatement(ProxyConnection connection, Statement statement) {
+        this(connection, statement, 0);
+    }
+
+    /**
+     * @param spillThreshold heap threshold in bytes of the {@link ScrollableResultSet} returned for
+     *                       results, 0 to return forward-only result sets of the target
+     */
+    ProxyStatement(ProxyConnection connection, Statement statement, long spillThreshold) {
+        this.connection = connection;
+        this.target = statement;
+        this.spillThreshold = spillThreshold;
+        connection.getMetrics().statementOpened();
+    }
+
+    /**
+     * A call of the target statement.
+     */
+    protected interface Execution<T> {
+        T execute() throws SQLException;
+    }
+
+    /**
+     * Executes a call of the target and records its duration in the metrics of the connection.
+     *
+     * @param sql the statement sent to the target, null if unknown (e.g. a batch)
+     */
+    protected <T> T track(String sql, Execution<T> execution) throws SQLException {
+        return track(sql, sql, execution);
+    }
+
+    /**
+     * Executes a call of the target and records its duration in the metrics of the connection
+     * and, if slow, in the slow query log.
+     *
+     * @param originalSql the statement passed by the application
+     * @param sql         the statement sent to the target, null if unknown (e.g. a batch)
+     */
+    protected <T> T track(String originalSql, String sql, Execution<T> execution) throws SQLException {
+        closeOpenResultSet();
+        targetResultSet = null;
+        finishTrace();
+        lastSql = sql;
+        QueryTrace trace = startTrace(originalSql, sql);
+        long start = System.nanoTime();
+        Object event = Events.begin(Events.EXECUTE);
+        T result = null;
+        String error = null;
+        try {
+            result = execution.execute();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            error = String.valueOf(e.getMessage());
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            connection.getMetrics().recordExecute(nanos);
+            if (event != null) {
+                Events.commitExecute(event, sql);
+            }
+            if (originalSql != null && !isNavigatorQuery()) {
+                connection.recordUnmatched(originalSql, nanos, error != null);
+            }
+            if (trace != null) {
+                trace.executed(nanos, updateCount(result), error);
+                if (error == null) {
+                    // finished when the result set is closed or the next statement is executed
+                    this.trace = trace;
+                } else {
+                    trace.finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the statement was rewritten by a full rewrite rule, see {@link RewriteResult#isNavigatorQuery()}.
+     */
+    protected boolean isNavigatorQuery() {
+        return false;
+    }
+
+    /**
+     * Starts the trace of an execution, null if neither the slow query log nor the traffic recorder is enabled.
+     */
+    protected QueryTrace startTrace(String originalSql, String sql) {
+        return connection.startTrace(originalSql, sql, null, 0);
+    }
+
+    /**
+     * Traces an execution served from a cache without a call of the target.
+     */
+    protected void traceCached(String originalSql, String sql) {
+        QueryTrace trace = startTrace(originalSql, sql);
+        if (trace != null) {
+            trace.executed(0, -1, null);
+            trace.finish();
+        }
+    }
+
+    private void finishTrace() {
+        if (trace != null) {
+            trace.finish();
+            trace = null;
+        }
+    }
+
+    private static long updateCount(Object result) {
+        if (result instanceof Integer) {
+            return (Integer) result;
+        }
+        if (result instanceof int[]) {
+            long count = 0;
+            for (int c : (int[]) result) {
+                count += Math.max(c, 0);
+            }
+            return count;
+        }
+        return -1;
+    }
+
+    /**
+     * Wraps a result set of the target to record its fetch calls. A previous result set of
+     * this statement is considered closed, as required by JDBC.
+     */
+    protected ResultSet meter(ResultSet rs) {
+        if (meteredResultSet != null) {
+            meteredResultSet.release();
+            meteredResultSet = null;
+        }
+        if (rs == null) {
+            finishTrace();
+            return null;
+        }
+        meteredResultSet = new MeteredResultSet(rs, this, connection.getMetrics(), lastSql, trace);
+        trace = null;
+        return meteredResultSet;
+    }
+
+    /**
+     * Registers a result set holding resources of its own (e.g. the background fetch of a
+     * {@link ProxyResultSet}), which are not released when the target statement is closed.
+     * It is closed when this statement is closed or executed again.
+     */
+    protected ResultSet open(ResultSet rs) {
+        openResultSet = rs;
+        return rs;
+    }
+
+    /**
+     * Closes the registered result set, as required by JDBC before the statement is executed again.
+     */
+    protected void closeOpenResultSet() throws SQLException {
+        if (openResultSet != null) {
+            ResultSet rs = openResultSet;
+            openResultSet = null;
+            rs.close();
+        }
+    }
+
+    /**
+     * Notifies the connection about an executed statement, which might have changed data or schema objects.
+     *
+     * @param sql the executed statement, null if unknown (e.g. a batch)
+     */
+    protected void afterUpdate(String sql) {
+        connection.afterUpdate(sql);
+    }
+
+    /**
+     * Executes a query via the loader and converts the values, if enabled. Results of read-only
+     * queries are served from the result cache of the connection, if the cache is enabled.
+     *
+     * @param originalSql the query passed by the application
+     * @param binds       the bind values, null if they are unknown and the result must not be cached
+     */
+    protected ResultSet executeQuery(String originalSql, String sql, List<Object> binds, MetadataCache.Loader loader) throws SQLException {
+        closeOpenResultSet();
+        resultSet = null;
+        ResultCache resultCache = connection.getResultCache();
+        List<Object> key = null;
+        if (resultCache != null && binds != null && !connection.isInTransaction() && ResultCache.isReadOnly(sql)) {
+            key = ResultCache.key(sql, binds, getMaxRows());
+            CachedResult result = resultCache.get(key);
+            if (result != null) {
+                traceCached(originalSql, sql);
+                resultSet = result.newResultSet(this);
+                return resultSet;
+            }
+        }
+        ResultSet rs = convert(meter(track(originalSql, sql, loader::executeQuery)));
+        if (key != null && ProxyResultSet.isDetachable(rs.getMetaData())) {
+            // at most the budget is read, a larger result cannot be cached
+            CachedResult result = CachedResult.read(rs, new CachedResultSetMetaData(rs.getMetaData()), ResultCache.MAX_ROWS,
+                    resultCache.getBudget());
+            if (result.getRowCount() < ResultCache.MAX_ROWS && result.getSizeInBytes() <= resultCache.getBudget()) {
+                rs.close();
+                resultCache.put(key, result);
+                resultSet = result.newResultSet(this);
+                return resultSet;
+            }
+            // too large, the remaining rows are passed through
+            int batchSize = connection.getRowPrefetch();
+            return open(ProxyResultSet.resume(result, rs, this, batchSize > 0 ? batchSize : ResultCache.MAX_ROWS));
+        }
+        return open(ProxyResultSet.wrap(rs, this, connection.getRowPrefetch()));
+    }
+
+    /**
+     * Executes a query via the loader and returns a scroll-insensitive result set reading the
+     * forward-only result set of the target, see {@link ScrollableResultSet}.
+     */
+    protected ResultSet executeScrollable(String originalSql, String sql, MetadataCache.Loader loader) throws SQLException {
+        closeOpenResultSet();
+        resultSet = null;
+        return open(new ScrollableResultSet(convert(meter(track(originalSql, sql, loader::executeQuery))), this, spillThreshold));
+    }
+
+    protected ResultSet convert(ResultSet rs) throws SQLException {
+        if (connection.isConvertTypes()) {
+            return ConvertingResultSet.wrap(rs, this, connection.getProduct());
+        }
+        return rs;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        final String limitedSql = connection.limitRows(connection.approximateRowCount(sql), getMaxRows());
+        if (spillThreshold > 0) {
+            return executeScrollable(sql, limitedSql, () -> target.executeQuery(limitedSql));
+        }
+        return executeQuery(sql, limitedSql, Collections.emptyList(), () -> target.executeQuery(limitedSql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.executeUpdate(sql));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (!closed) {
+            closed = true;
+            try {
+                closeOpenResultSet();
+            } finally {
+                meter(null);
+                connection.getMetrics().statementClosed();
+            }
+        }
+        target.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return target.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        target.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return target.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        target.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        target.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return target.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        target.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        target.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return target.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        target.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        target.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        if (ResultCache.isReadOnly(sql)) {
+            // converted, prefetched and cached like executeQuery()
+            resultSet = executeQuery(sql);
+            return true;
+        }
+        resultSet = null;
+        try {
+            final String limitedSql = connection.limitRows(connection.approximateRowCount(sql), getMaxRows());
+            return track(sql, limitedSql, () -> target.execute(limitedSql));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        if (resultSet != null) {
+            return resultSet;
+        }
+        if (targetResultSet == null) {
+            ResultSet rs = target.getResultSet();
+            if (rs != null && spillThreshold > 0) {
+                targetResultSet = open(new ScrollableResultSet(convert(meter(rs)), this, spillThreshold));
+            } else if (rs != null) {
+                targetResultSet = open(ProxyResultSet.wrap(convert(meter(rs)), this, connection.getRowPrefetch()));
+            }
+        }
+        return targetResultSet;
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        if (resultSet != null) {
+            return -1;
+        }
+        return target.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        if (resultSet != null) {
+            resultSet.close();
+            resultSet = null;
+            return false;
+        }
+        closeOpenResultSet();
+        targetResultSet = null;
+        return target.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        target.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return target.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        target.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return target.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return target.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        // the target is read forward-only, scrolling is provided by ScrollableResultSet
+        return spillThreshold > 0 ? ResultSet.TYPE_SCROLL_INSENSITIVE : target.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        target.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        target.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        resultSet = null;
+        try {
+            return track(null, target::executeBatch);
+        } finally {
+            afterUpdate(null);
+        }
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        if (resultSet != null) {
+            return getMoreResults();
+        }
+        if (current == CLOSE_CURRENT_RESULT) {
+            closeOpenResultSet();
+        }
+        targetResultSet = null;
+        return target.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return target.getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.executeUpdate(sql, autoGeneratedKeys));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.executeUpdate(sql, columnIndexes));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.executeUpdate(sql, columnNames));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.execute(sql, autoGeneratedKeys));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.execute(sql, columnIndexes));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        resultSet = null;
+        try {
+            return track(sql, () -> target.execute(sql, columnNames));
+        } finally {
+            afterUpdate(sql);
+        }
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return target.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return target.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        target.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return target.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        target.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return target.isCloseOnCompletion();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return target.isWrapperFor(iface);
+    }
+}
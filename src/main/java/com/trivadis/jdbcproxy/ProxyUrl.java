@@ -0,0 +1,288 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable model of a JDBC URL accepted by the proxy driver. Supported formats:
+ * <ul>
+ *     <li>jdbc:proxy:&lt;targetUrl&gt;</li>
+ *     <li>jdbc:mysql://&lt;targetUrl&gt;:[&lt;port&gt;]/[&lt;database&gt;] (constructed by SQL Developer)</li>
+ *     <li>jdbc:mysql://&lt;host&gt;... (original MySQL URL)</li>
+ * </ul>
+ * URL parameters of the target URL starting with "proxy." are options for the proxy.
+ * They are removed from the target URL.
+ * Example: "jdbc:proxy:jdbc:postgresql://localhost:5432/postgres?proxy.prefetch=false"
+ * has the target URL "jdbc:postgresql://localhost:5432/postgres" and the option prefetch=false.
+ */
+public class ProxyUrl {
+    public final static String PROXY_PREFIX = "jdbc:proxy:";
+    public final static String MYSQL_PREFIX = "jdbc:mysql:";
+    public final static String SQLDEV_PREFIX = "jdbc:mysql://jdbc:";
+    public final static String OPTION_PREFIX = "proxy.";
+    // options
+    public final static String METADATA_CACHE = "metadataCache";
+    public final static String PREFETCH = "prefetch";
+    public final static String REPLICAS = "replicas";
+    public final static String METADATA_CHANNEL = "metadataChannel";
+    public final static String ROW_PREFETCH = "rowPrefetch";
+    public final static String SPILL_THRESHOLD = "spillThreshold";
+    public final static String CONVERT_TYPES = "convertTypes";
+    public final static String TARGETS = "targets";
+    public final static String BALANCE = "balance";
+    public final static String PROBE_INTERVAL = "probeInterval";
+    public final static String RESULT_CACHE_TTL = "resultCacheTtl";
+    public final static String RESULT_CACHE_BUDGET = "resultCacheBudget";
+    public final static String LIMIT_PUSHDOWN = "limitPushdown";
+    public final static String ROW_COUNT = "rowCount";
+    public final static String SLOW_QUERY_THRESHOLD = "slowQueryThreshold";
+    public final static String SLOW_QUERY_LOG = "slowQueryLog";
+    public final static String SLOW_QUERY_LOG_SIZE = "slowQueryLogSize";
+    public final static String RECORD = "record";
+    public final static String BURST_GAP = "burstGap";
+    public final static String UNMATCHED_STATEMENTS = "unmatchedStatements";
+    public final static String SNOWFLAKE_METADATA = "snowflakeMetadata";
+    // values of option rowCount
+    public final static String EXACT = "exact";
+    public final static String APPROXIMATE = "approximate";
+    // values of option snowflakeMetadata
+    public final static String INFORMATION_SCHEMA = "information_schema";
+    public final static String SHOW = "show";
+
+    private final static int MAX_CACHED_URLS = 256;
+    private final static Map<String, ProxyUrl> cache = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final String targetUrl;
+    private final Integer port;
+    private final String database;
+    private final Map<String, String> options;
+
+    private ProxyUrl(String url, String targetUrl, Integer port, String database, Map<String, String> options) {
+        this.url = url;
+        this.targetUrl = targetUrl;
+        this.port = port;
+        this.database = database;
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Parses a URL. Results are memoized per URL.
+     *
+     * @throws IllegalArgumentException if the URL is not supported
+     */
+    public static ProxyUrl parse(String url) {
+        if (url == null) {
+            throw new IllegalArgumentException(UrlUtil.INVALID_FORMAT);
+        }
+        ProxyUrl result = cache.get(url);
+        if (result == null) {
+            result = doParse(url);
+            if (cache.size() >= MAX_CACHED_URLS) {
+                cache.clear();
+            }
+            cache.put(url, result);
+        }
+        return result;
+    }
+
+    private static ProxyUrl doParse(String url) {
+        if (url.startsWith(PROXY_PREFIX)) {
+            return withOptions(url, url.substring(PROXY_PREFIX.length()), null, null);
+        } else if (url.startsWith(SQLDEV_PREFIX)) {
+            // suffix ":[<port>]/[<database>]" is determined from the end, database contains neither '/' nor ':'
+            int pos = url.length() - 1;
+            while (pos >= 0 && url.charAt(pos) != '/' && url.charAt(pos) != ':') {
+                pos--;
+            }
+            if (pos < 0 || url.charAt(pos) != '/') {
+                throw new IllegalArgumentException(UrlUtil.INVALID_FORMAT);
+            }
+            int slash = pos--;
+            while (pos >= 0 && Character.isDigit(url.charAt(pos))) {
+                pos--;
+            }
+            int targetEnd = pos;
+            if (targetEnd <= "jdbc:mysql://".length() || url.charAt(targetEnd) != ':') {
+                throw new IllegalArgumentException(UrlUtil.INVALID_FORMAT);
+            }
+            String portText = url.substring(targetEnd + 1, slash);
+            String database = url.substring(slash + 1);
+            return withOptions(url, url.substring("jdbc:mysql://".length(), targetEnd),
+                    portText.isEmpty() ? null : Integer.valueOf(portText), database.isEmpty() ? null : database);
+        } else if (url.startsWith(MYSQL_PREFIX)) {
+            return withOptions(url, url, null, null);
+        }
+        throw new IllegalArgumentException(UrlUtil.INVALID_FORMAT);
+    }
+
+    private static ProxyUrl withOptions(String url, String targetUrl, Integer port, String database) {
+        Map<String, String> options = new LinkedHashMap<>();
+        int queryStart = targetUrl.indexOf('?');
+        if (queryStart < 0 || !targetUrl.contains(OPTION_PREFIX)) {
+            return new ProxyUrl(url, targetUrl, port, database, options);
+        }
+        StringBuilder target = new StringBuilder(targetUrl.length());
+        target.append(targetUrl, 0, queryStart);
+        char separator = '?';
+        int start = queryStart + 1;
+        while (start <= targetUrl.length()) {
+            int end = targetUrl.indexOf('&', start);
+            if (end < 0) {
+                end = targetUrl.length();
+            }
+            String param = targetUrl.substring(start, end);
+            if (param.startsWith(OPTION_PREFIX)) {
+                int eq = param.indexOf('=');
+                if (eq < 0) {
+                    options.put(param.substring(OPTION_PREFIX.length()), "true");
+                } else {
+                    options.put(param.substring(OPTION_PREFIX.length(), eq), param.substring(eq + 1));
+                }
+            } else if (!param.isEmpty()) {
+                target.append(separator).append(param);
+                separator = '&';
+            }
+            start = end + 1;
+        }
+        return new ProxyUrl(url, target.toString(), port, database, options);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the target URL without proxy options.
+     */
+    public String getTargetUrl() {
+        return targetUrl;
+    }
+
+    /**
+     * Returns the port passed by SQL Developer, which is ignored. Null, if not passed.
+     */
+    public Integer getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the database passed by SQL Developer, which is ignored. Null, if not passed.
+     */
+    public String getDatabase() {
+        return database;
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public String getOption(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean getBooleanOption(String name, boolean defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public long getLongOption(String name, long defaultValue) {
+        String value = options.get(name);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a size in bytes. The value may have the suffix k, m or g (e.g. "64m").
+     */
+    public long getSizeOption(String name, long defaultValue) {
+        String value = options.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        long factor = 1;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k':
+                factor = 1024L;
+                break;
+            case 'm':
+                factor = 1024L * 1024;
+                break;
+            case 'g':
+                factor = 1024L * 1024 * 1024;
+                break;
+            default:
+                // bytes
+        }
+        try {
+            return Long.parseLong(factor == 1 ? value : value.substring(0, value.length() - 1)) * factor;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the URLs of the read replicas defined in the comma separated option "replicas".
+     * An entry is either a JDBC URL or a host with an optional port replacing the ones in the target URL.
+     * Example: "jdbc:proxy:jdbc:postgresql://primary/db?proxy.replicas=replica1,replica2:5433"
+     * returns "jdbc:postgresql://replica1/db" and "jdbc:postgresql://replica2:5433/db".
+     */
+    public List<String> getReplicaUrls() {
+        return getUrls(REPLICAS);
+    }
+
+    /**
+     * Returns the target URL followed by the URLs of the equivalent targets defined in the comma
+     * separated option "targets". The entries are interpreted like the ones of getReplicaUrls.
+     */
+    public List<String> getTargetUrls() {
+        List<String> targetUrls = getUrls(TARGETS);
+        targetUrls.add(0, targetUrl);
+        return targetUrls;
+    }
+
+    private List<String> getUrls(String option) {
+        List<String> urls = new ArrayList<>();
+        String value = options.get(option);
+        if (value != null) {
+            for (String entry : value.split(",")) {
+                entry = entry.trim();
+                if (entry.startsWith("jdbc:")) {
+                    urls.add(entry);
+                } else if (!entry.isEmpty()) {
+                    urls.add(UrlUtil.replaceAuthority(targetUrl, entry));
+                }
+            }
+        }
+        return urls;
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
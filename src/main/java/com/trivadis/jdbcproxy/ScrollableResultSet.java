@@ -0,0 +1,265 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.cache.RowStore;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Statement;
+
+/**
+ * Scroll-insensitive result set on top of a forward-only target result set.
+ * Rows are fetched from the target on demand and kept in a {@link RowStore}, which spills
+ * rows to a memory-mapped temporary file beyond a heap threshold. Hence, results of any
+ * size can be scrolled with bounded heap. LOBs are materialized when fetched.
+ */
+public class ScrollableResultSet extends DetachedResultSet {
+    private final RowStore rows;
+    private boolean exhausted = false;
+    private boolean closed = false;
+    private int row = 0; // 1-based, 0 before first, rows.size() + 1 after last
+    private ResultSet current;
+    private int fetchSize = 0;
+
+    /**
+     * @param heapThreshold estimated heap size in bytes of the rows kept on the heap
+     */
+    public ScrollableResultSet(ResultSet target, Statement statement, long heapThreshold) throws SQLException {
+        super(target, statement, new CachedResultSetMetaData(target.getMetaData()));
+        this.rows = new RowStore(heapThreshold);
+    }
+
+    /**
+     * Fetches rows from the target until the store contains count rows or the target is exhausted.
+     */
+    private void fetchUntil(int count) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        while (!exhausted && rows.size() < count) {
+            if (target.next()) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = detach(target.getObject(i + 1));
+                }
+                rows.add(values);
+            } else {
+                exhausted = true;
+                target.close();
+            }
+        }
+    }
+
+    private void fetchAll() throws SQLException {
+        fetchUntil(Integer.MAX_VALUE);
+    }
+
+    private static Object detach(Object value) throws SQLException {
+        if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            return clob.getSubString(1, (int) clob.length());
+        } else if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            return blob.getBytes(1, (int) blob.length());
+        } else if (value instanceof SQLXML) {
+            return ((SQLXML) value).getString();
+        }
+        return value;
+    }
+
+    /**
+     * Moves the cursor to a 1-based row. Values outside of the result move the cursor
+     * before the first or after the last row.
+     */
+    private boolean moveTo(long position) throws SQLException {
+        checkOpen();
+        current = null;
+        if (position <= 0) {
+            row = 0;
+            return false;
+        }
+        fetchUntil((int) Math.min(position, Integer.MAX_VALUE));
+        if (position > rows.size()) {
+            row = rows.size() + 1;
+            return false;
+        }
+        row = (int) position;
+        return true;
+    }
+
+    @Override
+    protected void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Result set is closed.");
+        }
+    }
+
+    @Override
+    protected ResultSet current() throws SQLException {
+        checkOpen();
+        if (row < 1 || row > rows.size()) {
+            throw new SQLException("Cursor is not positioned on a row.");
+        }
+        if (current == null) {
+            current = CachedResult.ofRow(metaData, rows.get(row - 1)).newResultSet(statement);
+            current.next();
+        }
+        return current;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        return moveTo((long) row + 1);
+    }
+
+    @Override
+    public boolean previous() throws SQLException {
+        return moveTo((long) row - 1);
+    }
+
+    @Override
+    public boolean first() throws SQLException {
+        return moveTo(1);
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        checkOpen();
+        fetchAll();
+        return moveTo(rows.size());
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        moveTo(0);
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        checkOpen();
+        fetchAll();
+        moveTo((long) rows.size() + 1);
+    }
+
+    @Override
+    public boolean absolute(int rowNumber) throws SQLException {
+        if (rowNumber >= 0) {
+            return moveTo(rowNumber);
+        }
+        checkOpen();
+        fetchAll();
+        return moveTo((long) rows.size() + 1 + rowNumber);
+    }
+
+    @Override
+    public boolean relative(int offset) throws SQLException {
+        return moveTo((long) row + offset);
+    }
+
+    @Override
+    public boolean isBeforeFirst() throws SQLException {
+        checkOpen();
+        fetchUntil(1);
+        return row == 0 && rows.size() > 0;
+    }
+
+    @Override
+    public boolean isAfterLast() throws SQLException {
+        checkOpen();
+        return row > rows.size() && rows.size() > 0;
+    }
+
+    @Override
+    public boolean isFirst() throws SQLException {
+        checkOpen();
+        return row == 1 && rows.size() > 0;
+    }
+
+    @Override
+    public boolean isLast() throws SQLException {
+        checkOpen();
+        fetchUntil(row + 1);
+        return row >= 1 && row == rows.size();
+    }
+
+    @Override
+    public int getRow() throws SQLException {
+        checkOpen();
+        return row <= rows.size() ? row : 0;
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        checkOpen();
+    }
+
+    @Override
+    public int getFetchDirection() {
+        return ResultSet.FETCH_FORWARD;
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (rows < 0) {
+            throw new SQLException("Invalid fetch size " + rows + ".");
+        }
+        fetchSize = rows;
+        if (!exhausted) {
+            target.setFetchSize(rows);
+        }
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @Override
+    public int getType() {
+        return ResultSet.TYPE_SCROLL_INSENSITIVE;
+    }
+
+    /**
+     * Returns true if rows have been written to disk, for testing purposes only.
+     */
+    public boolean isSpilled() {
+        return rows.isSpilled();
+    }
+
+    /**
+     * Closes the target result set and deletes the temporary file.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current = null;
+        rows.close();
+        target.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+/**
+ * Service interface for target JDBC drivers. Implementations are registered in
+ * META-INF/services/com.trivadis.jdbcproxy.TargetDriverProvider and must not
+ * reference the driver class directly, to avoid loading it upfront.
+ */
+public interface TargetDriverProvider {
+
+    /**
+     * Returns the sub-protocol of the JDBC URL, e.g. "postgresql" for "jdbc:postgresql://localhost/postgres".
+     */
+    String getSubProtocol();
+
+    /**
+     * Returns the fully qualified class name of the JDBC driver.
+     */
+    String getDriverClassName();
+}
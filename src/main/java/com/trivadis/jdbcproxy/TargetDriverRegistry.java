@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Creates target JDBC drivers lazily. A driver class is loaded when a URL with its
+ * sub-protocol is used for the first time. The DriverManager is not asked for target
+ * drivers, it loads all drivers on the class path on first use.
+ */
+public class TargetDriverRegistry {
+    private static Map<String, TargetDriverProvider> providers;
+
+    private TargetDriverRegistry() {
+        // do not instantiate
+    }
+
+    private static synchronized Map<String, TargetDriverProvider> getProviders() {
+        if (providers == null) {
+            providers = new HashMap<>();
+            for (TargetDriverProvider provider : ServiceLoader.load(TargetDriverProvider.class, TargetDriverRegistry.class.getClassLoader())) {
+                providers.putIfAbsent(provider.getSubProtocol(), provider);
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Returns the sub-protocol of a JDBC URL.
+     * Example: "jdbc:postgresql://localhost:5432/postgres" returns "postgresql".
+     */
+    public static String getSubProtocol(String url) {
+        if (url != null && url.startsWith("jdbc:")) {
+            int end = url.indexOf(':', "jdbc:".length());
+            if (end > 0) {
+                return url.substring("jdbc:".length(), end);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new instance of the target driver for a JDBC URL.
+     * Returns null, if no provider is available for the sub-protocol.
+     */
+    public static Driver newDriver(String url) throws SQLException {
+        TargetDriverProvider provider = getProviders().get(getSubProtocol(url));
+        return provider == null ? null : newDriver(provider);
+    }
+
+    private static Driver newDriver(TargetDriverProvider provider) throws SQLException {
+        try {
+            Class<?> driverClass = Class.forName(provider.getDriverClassName(), true, provider.getClass().getClassLoader());
+            return (Driver) driverClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new SQLException("Cannot load driver " + provider.getDriverClassName()
+                    + ". Is the bundle for " + provider.getSubProtocol() + " installed?", e);
+        }
+    }
+}
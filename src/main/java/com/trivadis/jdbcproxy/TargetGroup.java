@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.NavigatorPrefetcher.ConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equivalent target databases (e.g. nodes of a cluster). New connections are opened on a
+ * healthy node chosen round-robin or by the lowest latency. When a node cannot be reached,
+ * the next one is used. The health and latency of the nodes are probed in the background
+ * via Connection.isValid. Groups are shared by all connections with the same nodes and user,
+ * and are discarded when unused for IDLE_MILLIS. A group uses the connection properties
+ * (e.g. the password) of the last connect.
+ */
+public class TargetGroup {
+    public final static String ROUND_ROBIN = "roundRobin";
+    public final static String LATENCY = "latency";
+    private final static long IDLE_MILLIS = 600_000;
+    private final static int PROBE_TIMEOUT_SECONDS = 5;
+    private final static Map<List<Object>, TargetGroup> groups = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService prober;
+
+    private final List<Object> key;
+    private final List<Node> nodes = new ArrayList<>();
+    private final boolean latencyBased;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledFuture<?> probe;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private int credentials;
+
+    private static class Node {
+        private final String url;
+        private volatile ConnectionFactory connectionFactory;
+        private Connection probeConnection;
+        private volatile boolean healthy = true;
+        private volatile double latencyMillis = 0;
+
+        private Node(String url, ConnectionFactory connectionFactory) {
+            this.url = url;
+            this.connectionFactory = connectionFactory;
+        }
+
+        private void recordLatency(long startNanos) {
+            double millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+            // exponentially weighted moving average of isValid round trips
+            latencyMillis = latencyMillis == 0 ? millis : 0.8 * latencyMillis + 0.2 * millis;
+        }
+
+        private synchronized void probe() {
+            long start = System.nanoTime();
+            try {
+                if (probeConnection == null) {
+                    probeConnection = connectionFactory.connect();
+                    start = System.nanoTime();
+                }
+                healthy = probeConnection.isValid(PROBE_TIMEOUT_SECONDS);
+                if (healthy) {
+                    recordLatency(start);
+                } else {
+                    closeProbeConnection();
+                }
+            } catch (SQLException | RuntimeException e) {
+                healthy = false;
+                closeProbeConnection();
+            }
+        }
+
+        /**
+         * Replaces the connection factory, e.g. after a change of the password.
+         * The probe connection opened with the previous factory is closed.
+         */
+        private synchronized void setConnectionFactory(ConnectionFactory connectionFactory) {
+            this.connectionFactory = connectionFactory;
+            closeProbeConnection();
+        }
+
+        private synchronized void closeProbeConnection() {
+            if (probeConnection != null) {
+                try {
+                    probeConnection.close();
+                } catch (SQLException e) {
+                    // ignore
+                }
+                probeConnection = null;
+            }
+        }
+    }
+
+    private TargetGroup(List<Object> key, List<String> urls, List<ConnectionFactory> connectionFactories,
+                        int credentials, boolean latencyBased, long probeIntervalMillis) {
+        this.key = key;
+        this.credentials = credentials;
+        for (int i = 0; i < urls.size(); i++) {
+            nodes.add(new Node(urls.get(i), connectionFactories.get(i)));
+        }
+        this.latencyBased = latencyBased;
+        probe = getProber().scheduleWithFixedDelay(this::probe, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getProber() {
+        if (prober == null) {
+            prober = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "jdbc-proxy-health-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return prober;
+    }
+
+    /**
+     * Returns the group for the nodes and user, creates it if necessary. The connection factories
+     * of an existing group are replaced when the connection properties have changed.
+     *
+     * @param urls                target URLs of the nodes
+     * @param connectionFactories opens a connection to the node with the same index
+     * @param info                connection properties passed to the factories, might be null
+     * @param balance             ROUND_ROBIN or LATENCY
+     * @param probeIntervalMillis delay between two health probes of a node
+     */
+    public static TargetGroup getInstance(List<String> urls, List<ConnectionFactory> connectionFactories, Properties info,
+                                          String balance, long probeIntervalMillis) {
+        List<Object> key = new ArrayList<>(urls);
+        key.add(info == null ? null : info.getProperty("user"));
+        key.add(balance);
+        int credentials = info == null ? 0 : info.hashCode();
+        TargetGroup group = groups.computeIfAbsent(key, k -> new TargetGroup(k, urls, connectionFactories,
+                credentials, LATENCY.equalsIgnoreCase(balance), probeIntervalMillis));
+        group.setConnectionFactories(connectionFactories, credentials);
+        return group;
+    }
+
+    private synchronized void setConnectionFactories(List<ConnectionFactory> connectionFactories, int credentials) {
+        if (credentials != this.credentials) {
+            for (int i = 0; i < nodes.size(); i++) {
+                nodes.get(i).setConnectionFactory(connectionFactories.get(i));
+            }
+            this.credentials = credentials;
+        }
+    }
+
+    private void probe() {
+        if (System.currentTimeMillis() - lastUsed > IDLE_MILLIS) {
+            groups.remove(key, this);
+            probe.cancel(false);
+            for (Node node : nodes) {
+                node.closeProbeConnection();
+            }
+            return;
+        }
+        for (Node node : nodes) {
+            node.probe();
+        }
+    }
+
+    /**
+     * Returns the nodes in the order they should be tried. Healthy nodes first.
+     */
+    private List<Node> getCandidates() {
+        List<Node> healthy = new ArrayList<>();
+        List<Node> unhealthy = new ArrayList<>();
+        int start = Math.floorMod(next.getAndIncrement(), nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+            (node.healthy ? healthy : unhealthy).add(node);
+        }
+        if (latencyBased) {
+            // stable sort, nodes without measurements are tried last in round-robin order
+            healthy.sort(Comparator.comparingDouble(node -> node.latencyMillis == 0 ? Double.MAX_VALUE : node.latencyMillis));
+        }
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    /**
+     * Opens a connection to a node. Fails over to the next node when a node cannot be reached.
+     */
+    public Connection connect() throws SQLException {
+        lastUsed = System.currentTimeMillis();
+        SQLException error = null;
+        for (Node node : getCandidates()) {
+            try {
+                Connection conn = node.connectionFactory.connect();
+                node.healthy = true;
+                return conn;
+            } catch (SQLException e) {
+                node.healthy = false;
+                if (error == null) {
+                    error = new SQLException("Cannot connect to any target.", e);
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        throw error;
+    }
+
+    /**
+     * Returns the URLs of the nodes considered healthy.
+     */
+    public List<String> getHealthyUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.healthy) {
+                urls.add(node.url);
+            }
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+/**
+ * A cached result with the change marker of its schema at load time.
+ */
+class CacheEntry {
+    private final String schema;
+    private final Object marker;
+    private final CachedResult result;
+
+    CacheEntry(String schema, Object marker, CachedResult result) {
+        this.schema = schema;
+        this.marker = marker;
+        this.result = result;
+    }
+
+    String getSchema() {
+        return schema;
+    }
+
+    Object getMarker() {
+        return marker;
+    }
+
+    CachedResult getResult() {
+        return result;
+    }
+}
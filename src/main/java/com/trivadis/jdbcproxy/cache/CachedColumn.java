@@ -0,0 +1,418 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-wise storage of cached values. Integers, longs, doubles and booleans are
+ * kept in primitive arrays, strings are dictionary-encoded and interned.
+ * Other types are kept as objects. Rows are 0-based.
+ */
+abstract class CachedColumn {
+    protected final BitSet nulls;
+
+    protected CachedColumn(BitSet nulls) {
+        this.nulls = nulls;
+    }
+
+    /**
+     * Creates the most compact column for the values.
+     */
+    static CachedColumn of(List<Object> values) {
+        Builder builder = new Builder();
+        for (Object value : values) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    abstract Object getObject(int row);
+
+    String getString(int row) {
+        return isNull(row) ? null : getObject(row).toString();
+    }
+
+    long getLong(int row) throws SQLException {
+        return isNull(row) ? 0 : toNumber(getObject(row)).longValue();
+    }
+
+    double getDouble(int row) throws SQLException {
+        return isNull(row) ? 0 : toNumber(getObject(row)).doubleValue();
+    }
+
+    /**
+     * Returns the estimated heap size of this column.
+     */
+    abstract long getSizeInBytes();
+
+    static Number toNumber(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return (Number) value;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        try {
+            return new BigDecimal(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Cannot convert '" + value + "' to a number.", e);
+        }
+    }
+
+    static class IntColumn extends CachedColumn {
+        private final int[] values;
+
+        private IntColumn(int[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getObject(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        String getString(int row) {
+            return isNull(row) ? null : Integer.toString(values[row]);
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 16 + 4L * values.length;
+        }
+    }
+
+    static class LongColumn extends CachedColumn {
+        private final long[] values;
+
+        private LongColumn(long[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getObject(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        String getString(int row) {
+            return isNull(row) ? null : Long.toString(values[row]);
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 16 + 8L * values.length;
+        }
+    }
+
+    static class DoubleColumn extends CachedColumn {
+        private final double[] values;
+
+        private DoubleColumn(double[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getObject(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 16 + 8L * values.length;
+        }
+    }
+
+    static class BooleanColumn extends CachedColumn {
+        private final BitSet values;
+
+        private BooleanColumn(BitSet values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getObject(int row) {
+            return isNull(row) ? null : values.get(row);
+        }
+
+        @Override
+        long getLong(int row) {
+            return values.get(row) ? 1 : 0;
+        }
+
+        @Override
+        double getDouble(int row) {
+            return getLong(row);
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 32 + values.size() / 8;
+        }
+    }
+
+    static class StringColumn extends CachedColumn {
+        private final int[] codes;
+        private final String[] dictionary;
+
+        private StringColumn(int[] codes, Map<String, Integer> index, BitSet nulls) {
+            super(nulls);
+            this.codes = codes;
+            dictionary = new String[index.size()];
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey().intern();
+            }
+        }
+
+        @Override
+        Object getObject(int row) {
+            return getString(row);
+        }
+
+        @Override
+        String getString(int row) {
+            return isNull(row) ? null : dictionary[codes[row]];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            long size = 32 + 4L * codes.length + 8L * dictionary.length;
+            for (String value : dictionary) {
+                size += 40 + 2L * value.length();
+            }
+            return size;
+        }
+    }
+
+    static class ObjectColumn extends CachedColumn {
+        private final Object[] values;
+
+        private ObjectColumn(Object[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object getObject(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getSizeInBytes() {
+            long size = 16 + 8L * values.length;
+            for (Object value : values) {
+                if (value instanceof String) {
+                    size += 40 + 2L * ((String) value).length();
+                } else if (value instanceof byte[]) {
+                    size += 16 + ((byte[]) value).length;
+                } else if (value != null) {
+                    size += 32;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Appends values row by row directly into the storage of the most compact column.
+     * The type is determined by the first non-null value. Values of another type switch
+     * the builder to object storage.
+     */
+    static class Builder {
+        private final BitSet nulls = new BitSet();
+        private Class<?> type;
+        private int size;
+        private int[] ints;
+        private long[] longs;
+        private double[] doubles;
+        private BitSet booleans;
+        private int[] codes;
+        private Map<String, Integer> index;
+        private Object[] objects;
+        private long payload = 0;
+
+        void add(Object value) {
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                if (type == null) {
+                    start(value.getClass());
+                } else if (type != Object.class && type != value.getClass()) {
+                    switchToObjects();
+                }
+                store(value);
+            }
+            size++;
+        }
+
+        private void start(Class<?> valueType) {
+            int capacity = Math.max(16, size + 1);
+            if (valueType == Integer.class) {
+                ints = new int[capacity];
+            } else if (valueType == Long.class) {
+                longs = new long[capacity];
+            } else if (valueType == Double.class) {
+                doubles = new double[capacity];
+            } else if (valueType == Boolean.class) {
+                booleans = new BitSet(capacity);
+            } else if (valueType == String.class) {
+                codes = new int[capacity];
+                index = new HashMap<>();
+            } else {
+                objects = new Object[capacity];
+                type = Object.class;
+                return;
+            }
+            type = valueType;
+        }
+
+        private void store(Object value) {
+            if (type == Integer.class) {
+                ints = grow(ints);
+                ints[size] = (Integer) value;
+            } else if (type == Long.class) {
+                longs = grow(longs);
+                longs[size] = (Long) value;
+            } else if (type == Double.class) {
+                doubles = grow(doubles);
+                doubles[size] = (Double) value;
+            } else if (type == Boolean.class) {
+                booleans.set(size, (Boolean) value);
+            } else if (type == String.class) {
+                codes = grow(codes);
+                Integer code = index.get(value);
+                if (code == null) {
+                    code = index.size();
+                    index.put((String) value, code);
+                    payload += 48 + 2L * ((String) value).length();
+                }
+                codes[size] = code;
+            } else {
+                objects = grow(objects);
+                objects[size] = value;
+                if (value instanceof String) {
+                    payload += 40 + 2L * ((String) value).length();
+                } else if (value instanceof byte[]) {
+                    payload += 16 + ((byte[]) value).length;
+                } else {
+                    payload += 32;
+                }
+            }
+        }
+
+        /**
+         * Returns a lower bound of the estimated heap size of the column built from the values
+         * added so far. Only strings and objects are taken into account.
+         */
+        long getSizeInBytes() {
+            return payload;
+        }
+
+        private void switchToObjects() {
+            CachedColumn column = build();
+            objects = new Object[Math.max(16, size + 1)];
+            for (int i = 0; i < size; i++) {
+                objects[i] = column.getObject(i);
+            }
+            ints = null;
+            longs = null;
+            doubles = null;
+            booleans = null;
+            codes = null;
+            index = null;
+            type = Object.class;
+        }
+
+        private int[] grow(int[] values) {
+            return size < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        }
+
+        private long[] grow(long[] values) {
+            return size < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        }
+
+        private double[] grow(double[] values) {
+            return size < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        }
+
+        private Object[] grow(Object[] values) {
+            return size < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        }
+
+        /**
+         * Creates the column of the values added so far.
+         */
+        CachedColumn build() {
+            if (type == Integer.class) {
+                return new IntColumn(Arrays.copyOf(ints, size), nulls);
+            } else if (type == Long.class) {
+                return new LongColumn(Arrays.copyOf(longs, size), nulls);
+            } else if (type == Double.class) {
+                return new DoubleColumn(Arrays.copyOf(doubles, size), nulls);
+            } else if (type == Boolean.class) {
+                return new BooleanColumn(booleans, nulls);
+            } else if (type == String.class) {
+                return new StringColumn(Arrays.copyOf(codes, size), index, nulls);
+            }
+            return new ObjectColumn(objects == null ? new Object[size] : Arrays.copyOf(objects, size), nulls);
+        }
+    }
+}
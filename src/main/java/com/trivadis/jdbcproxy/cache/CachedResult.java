@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, detached copy of a result set. A cached result can be replayed
+ * any number of times via {@link #newResultSet(Statement)}.
+ * Values are stored column-wise (see {@link CachedColumn}).
+ */
+public class CachedResult {
+    private final CachedResultSetMetaData metaData;
+    private final CachedColumn[] columns;
+    private final int rowCount;
+    private final long sizeInBytes;
+
+    private CachedResult(CachedResultSetMetaData metaData, CachedColumn[] columns, int rowCount) {
+        this.metaData = metaData;
+        this.columns = columns;
+        this.rowCount = rowCount;
+        long size = 256L * columns.length;
+        for (CachedColumn column : columns) {
+            size += column.getSizeInBytes();
+        }
+        this.sizeInBytes = size;
+    }
+
+    /**
+     * Reads all rows of the passed result set and closes it.
+     */
+    public static CachedResult of(ResultSet rs) throws SQLException {
+        try {
+            return read(rs, new CachedResultSetMetaData(rs.getMetaData()), Integer.MAX_VALUE);
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Reads the next rows of the passed result set, at most maxRows. The result set is not closed.
+     * Fewer than maxRows rows are returned at the end of the result set.
+     */
+    public static CachedResult read(ResultSet rs, CachedResultSetMetaData metaData, int maxRows) throws SQLException {
+        return read(rs, metaData, maxRows, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the next rows of the passed result set, at most maxRows. Reading stops early, when
+     * the estimated size of the rows read exceeds maxBytes. The size of the returned result is
+     * then larger than maxBytes as well. The result set is not closed.
+     */
+    public static CachedResult read(ResultSet rs, CachedResultSetMetaData metaData, int maxRows, long maxBytes)
+            throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        CachedColumn.Builder[] builders = new CachedColumn.Builder[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            builders[i] = new CachedColumn.Builder();
+        }
+        int rowCount = 0;
+        long size = 0;
+        while (rowCount < maxRows && size <= maxBytes && rs.next()) {
+            size = 0;
+            for (int i = 0; i < columnCount; i++) {
+                builders[i].add(rs.getObject(i + 1));
+                size += builders[i].getSizeInBytes();
+            }
+            rowCount++;
+        }
+        CachedColumn[] columns = new CachedColumn[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = builders[i].build();
+            builders[i] = null;
+        }
+        return new CachedResult(metaData, columns, rowCount);
+    }
+
+    /**
+     * Creates a result containing the passed rows.
+     */
+    public static CachedResult ofRows(CachedResultSetMetaData metaData, List<Object[]> rows) {
+        CachedColumn[] columns = new CachedColumn[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            List<Object> values = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                values.add(row[i]);
+            }
+            columns[i] = CachedColumn.of(values);
+        }
+        return new CachedResult(metaData, columns, rows.size());
+    }
+
+    /**
+     * Creates a result containing a single row.
+     */
+    public static CachedResult ofRow(CachedResultSetMetaData metaData, Object[] row) {
+        CachedColumn[] columns = new CachedColumn[row.length];
+        for (int i = 0; i < row.length; i++) {
+            columns[i] = CachedColumn.of(Collections.singletonList(row[i]));
+        }
+        return new CachedResult(metaData, columns, 1);
+    }
+
+    /**
+     * Returns the estimated heap size of this result.
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public CachedResultSetMetaData getMetaData() {
+        return metaData;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns a column, 0-based.
+     */
+    CachedColumn getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Creates a new read-only cursor on this cached result.
+     */
+    public ResultSet newResultSet(Statement statement) {
+        return new CachedResultSet(this, statement);
+    }
+}
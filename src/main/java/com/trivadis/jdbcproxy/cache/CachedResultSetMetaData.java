@@ -0,0 +1,219 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Detached copy of a ResultSetMetaData. Does not hold any resources of the target.
+ */
+public class CachedResultSetMetaData implements ResultSetMetaData {
+    private final String[] labels;
+    private final String[] names;
+    private final String[] tableNames;
+    private final String[] schemaNames;
+    private final String[] catalogNames;
+    private final String[] typeNames;
+    private final String[] classNames;
+    private final int[] types;
+    private final int[] precisions;
+    private final int[] scales;
+    private final int[] displaySizes;
+    private final int[] nullables;
+
+    public CachedResultSetMetaData(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        labels = new String[count];
+        names = new String[count];
+        tableNames = new String[count];
+        schemaNames = new String[count];
+        catalogNames = new String[count];
+        typeNames = new String[count];
+        classNames = new String[count];
+        types = new int[count];
+        precisions = new int[count];
+        scales = new int[count];
+        displaySizes = new int[count];
+        nullables = new int[count];
+        for (int i = 0; i < count; i++) {
+            int column = i + 1;
+            labels[i] = metaData.getColumnLabel(column);
+            names[i] = metaData.getColumnName(column);
+            tableNames[i] = metaData.getTableName(column);
+            schemaNames[i] = metaData.getSchemaName(column);
+            catalogNames[i] = metaData.getCatalogName(column);
+            typeNames[i] = metaData.getColumnTypeName(column);
+            classNames[i] = metaData.getColumnClassName(column);
+            types[i] = metaData.getColumnType(column);
+            precisions[i] = metaData.getPrecision(column);
+            scales[i] = metaData.getScale(column);
+            displaySizes[i] = metaData.getColumnDisplaySize(column);
+            nullables[i] = metaData.isNullable(column);
+        }
+    }
+
+    /**
+     * Returns the 0-based index of a column label or name (case-insensitive) or -1.
+     */
+    public int indexOf(String columnLabel) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != null && labels[i].equalsIgnoreCase(columnLabel)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && names[i].equalsIgnoreCase(columnLabel)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int index(int column) throws SQLException {
+        if (column < 1 || column > labels.length) {
+            throw new SQLException("Invalid column index " + column + ".");
+        }
+        return column - 1;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return labels.length;
+    }
+
+    @Override
+    public boolean isAutoIncrement(int column) throws SQLException {
+        index(column);
+        return false;
+    }
+
+    @Override
+    public boolean isCaseSensitive(int column) throws SQLException {
+        index(column);
+        return true;
+    }
+
+    @Override
+    public boolean isSearchable(int column) throws SQLException {
+        index(column);
+        return false;
+    }
+
+    @Override
+    public boolean isCurrency(int column) throws SQLException {
+        index(column);
+        return false;
+    }
+
+    @Override
+    public int isNullable(int column) throws SQLException {
+        return nullables[index(column)];
+    }
+
+    @Override
+    public boolean isSigned(int column) throws SQLException {
+        index(column);
+        return true;
+    }
+
+    @Override
+    public int getColumnDisplaySize(int column) throws SQLException {
+        return displaySizes[index(column)];
+    }
+
+    @Override
+    public String getColumnLabel(int column) throws SQLException {
+        return labels[index(column)];
+    }
+
+    @Override
+    public String getColumnName(int column) throws SQLException {
+        return names[index(column)];
+    }
+
+    @Override
+    public String getSchemaName(int column) throws SQLException {
+        return schemaNames[index(column)];
+    }
+
+    @Override
+    public int getPrecision(int column) throws SQLException {
+        return precisions[index(column)];
+    }
+
+    @Override
+    public int getScale(int column) throws SQLException {
+        return scales[index(column)];
+    }
+
+    @Override
+    public String getTableName(int column) throws SQLException {
+        return tableNames[index(column)];
+    }
+
+    @Override
+    public String getCatalogName(int column) throws SQLException {
+        return catalogNames[index(column)];
+    }
+
+    @Override
+    public int getColumnType(int column) throws SQLException {
+        return types[index(column)];
+    }
+
+    @Override
+    public String getColumnTypeName(int column) throws SQLException {
+        return typeNames[index(column)];
+    }
+
+    @Override
+    public boolean isReadOnly(int column) throws SQLException {
+        index(column);
+        return true;
+    }
+
+    @Override
+    public boolean isWritable(int column) throws SQLException {
+        index(column);
+        return false;
+    }
+
+    @Override
+    public boolean isDefinitelyWritable(int column) throws SQLException {
+        index(column);
+        return false;
+    }
+
+    @Override
+    public String getColumnClassName(int column) throws SQLException {
+        return classNames[index(column)];
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Cannot unwrap to " + iface.getName() + ".");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
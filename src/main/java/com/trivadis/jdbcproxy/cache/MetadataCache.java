@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches results of navigator queries. An entry is associated with the schema passed
+ * as bind value and is re-fetched only when the change marker of this schema moved.
+ * Entries without a schema bind value are re-fetched when any marker moved.
+ * The entries are kept in the process-wide {@link MetadataStore} and are shared by all
+ * connections with the same target key (normalized target URL and user).
+ */
+public class MetadataCache {
+    private final Object targetKey;
+    private final SchemaChangeDetector detector;
+    private final MetadataStore store;
+    private volatile Map<String, String> markers;
+
+    public MetadataCache(Object targetKey, SchemaChangeDetector detector) {
+        this(targetKey, detector, MetadataStore.getInstance());
+    }
+
+    MetadataCache(Object targetKey, SchemaChangeDetector detector, MetadataStore store) {
+        this.targetKey = targetKey;
+        this.detector = detector;
+        this.store = store;
+    }
+
+    /**
+     * Executes a query against the target database.
+     */
+    public interface Loader {
+        ResultSet executeQuery() throws SQLException;
+    }
+
+    /**
+     * Returns the cached result of a navigator query or loads it, if the schema changed.
+     */
+    public ResultSet executeQuery(String sql, List<Object> binds, Statement statement, Loader loader) throws SQLException {
+        Map<String, String> current;
+        try {
+            current = getMarkers();
+        } catch (SQLException e) {
+            // e.g. insufficient privileges, do not cache
+            return loader.executeQuery();
+        }
+        List<Object> key = key(sql, binds);
+        CacheEntry entry = store.get(key);
+        if (entry == null || !isValid(entry, current)) {
+            String schema = schemaOf(binds, current);
+            entry = new CacheEntry(schema, marker(schema, current), CachedResult.of(loader.executeQuery()));
+            store.put(key, entry);
+        }
+        return entry.getResult().newResultSet(statement);
+    }
+
+    /**
+     * Returns true if a result is cached and valid according to the last known change markers.
+     */
+    public boolean contains(String sql, List<Object> binds) {
+        Map<String, String> current = markers;
+        CacheEntry entry = store.get(key(sql, binds));
+        return current != null && entry != null && isValid(entry, current);
+    }
+
+    /**
+     * Loads a result in the background. The change markers are not read, since the connection
+     * used for reading markers is busy. The last known markers are associated with the result.
+     */
+    public void prefetch(String sql, List<Object> binds, Loader loader) throws SQLException {
+        Map<String, String> current = markers;
+        if (current != null && !contains(sql, binds)) {
+            String schema = schemaOf(binds, current);
+            store.put(key(sql, binds), new CacheEntry(schema, marker(schema, current), CachedResult.of(loader.executeQuery())));
+        }
+    }
+
+    /**
+     * Forces a check of the change markers on the next access, e.g. after a DDL statement.
+     */
+    public void recheck() {
+        detector.recheck();
+    }
+
+    /**
+     * Removes all entries of the target.
+     */
+    public void clear() {
+        store.removeIf((key, entry) -> targetKey.equals(key.get(0)));
+    }
+
+    private synchronized Map<String, String> getMarkers() throws SQLException {
+        Map<String, String> current = detector.getMarkers();
+        if (markers != null && current != markers) {
+            // drop entries of changed schemas
+            store.removeIf((key, entry) -> targetKey.equals(key.get(0)) && !isValid(entry, current));
+        }
+        markers = current;
+        return current;
+    }
+
+    private List<Object> key(String sql, List<Object> binds) {
+        List<Object> key = new ArrayList<>(binds.size() + 2);
+        key.add(targetKey);
+        key.add(sql);
+        key.addAll(binds);
+        return key;
+    }
+
+    private static boolean isValid(CacheEntry entry, Map<String, String> markers) {
+        return entry.getMarker().equals(marker(entry.getSchema(), markers));
+    }
+
+    private static Object marker(String schema, Map<String, String> markers) {
+        if (schema == null) {
+            return markers;
+        }
+        String marker = markers.get(schema);
+        return marker == null ? "" : marker;
+    }
+
+    private static String schemaOf(List<Object> binds, Map<String, String> markers) {
+        for (Object bind : binds) {
+            if (bind instanceof String && markers.containsKey(bind)) {
+                return (String) bind;
+            }
+        }
+        return null;
+    }
+}
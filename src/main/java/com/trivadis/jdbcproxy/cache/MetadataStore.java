@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Process-wide store for cached metadata, shared by all connections to the same target.
+ * The store is limited by a memory budget (least recently used entries are evicted first).
+ * Entries are softly referenced, hence the garbage collector may drop them when memory is low.
+ * The budget in bytes is configured via the system property "jdbcproxy.metadataCache.budget".
+ */
+public class MetadataStore {
+    private final static long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    private final static MetadataStore INSTANCE = new MetadataStore(Long.getLong("jdbcproxy.metadataCache.budget", DEFAULT_BUDGET));
+    private final long budget;
+    private final LinkedHashMap<List<Object>, Slot> slots = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReferenceQueue<CacheEntry> queue = new ReferenceQueue<>();
+    private long size = 0;
+
+    private static class Slot extends SoftReference<CacheEntry> {
+        private final List<Object> key;
+        private final long size;
+
+        private Slot(List<Object> key, CacheEntry entry, ReferenceQueue<CacheEntry> queue) {
+            super(entry, queue);
+            this.key = key;
+            this.size = entry.getResult().getSizeInBytes();
+        }
+    }
+
+    MetadataStore(long budget) {
+        this.budget = budget;
+    }
+
+    public static MetadataStore getInstance() {
+        return INSTANCE;
+    }
+
+    synchronized CacheEntry get(List<Object> key) {
+        expunge();
+        Slot slot = slots.get(key);
+        return slot == null ? null : slot.get();
+    }
+
+    synchronized void put(List<Object> key, CacheEntry entry) {
+        expunge();
+        Slot slot = new Slot(key, entry, queue);
+        if (slot.size > budget) {
+            remove(key);
+            return;
+        }
+        Slot previous = slots.put(key, slot);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += slot.size;
+        Iterator<Slot> iterator = slots.values().iterator();
+        while (size > budget && iterator.hasNext()) {
+            Slot eldest = iterator.next();
+            if (eldest != slot) {
+                iterator.remove();
+                size -= eldest.size;
+            }
+        }
+    }
+
+    synchronized void remove(List<Object> key) {
+        Slot slot = slots.remove(key);
+        if (slot != null) {
+            size -= slot.size;
+        }
+    }
+
+    /**
+     * Removes all entries matching the predicate.
+     */
+    synchronized void removeIf(BiPredicate<List<Object>, CacheEntry> predicate) {
+        expunge();
+        Iterator<Map.Entry<List<Object>, Slot>> iterator = slots.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<List<Object>, Slot> e = iterator.next();
+            CacheEntry entry = e.getValue().get();
+            if (entry == null || predicate.test(e.getKey(), entry)) {
+                iterator.remove();
+                size -= e.getValue().size;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the estimated size of all entries in bytes.
+     */
+    public synchronized long getSize() {
+        expunge();
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        expunge();
+        return slots.size();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    private void expunge() {
+        Slot slot;
+        while ((slot = (Slot) queue.poll()) != null) {
+            if (slots.get(slot.key) == slot) {
+                slots.remove(slot.key);
+                size -= slot.size;
+            }
+        }
+    }
+}
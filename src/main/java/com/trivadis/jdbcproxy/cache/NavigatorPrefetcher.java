@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns the order of navigator queries (e.g. showTableColumns followed by showTableIndexColumns)
+ * and the way bind values are passed from one query to the next. When the next query is likely,
+ * it is executed in the background and stored in the metadata cache. The connection is provided
+ * per prefetch, e.g. a shared connection is used only while it is not used by other threads.
+ */
+public class NavigatorPrefetcher {
+    private final static long MAX_GAP_MILLIS = 30000;
+    private final static int MIN_OBSERVATIONS = 3;
+    private final static double MIN_PROBABILITY = 0.6;
+    private final MetadataCache cache;
+    private final SchemaChangeDetector.ConnectionProvider connectionProvider;
+    private final Map<String, Map<String, Transition>> transitions = new HashMap<>();
+    private final Map<String, Integer> totals = new HashMap<>();
+    private final Set<List<Object>> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+    private String previousRule;
+    private List<Object> previousBinds;
+    private long previousTime;
+
+    /**
+     * Opens a new connection to the target database.
+     */
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private static class Transition {
+        private final String sql;
+        private final int[] bindMapping;
+        private int count = 0;
+
+        private Transition(String sql, int[] bindMapping) {
+            this.sql = sql;
+            this.bindMapping = bindMapping;
+        }
+
+        private boolean isPrefetchable() {
+            for (int index : bindMapping) {
+                if (index < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param connectionProvider provides the connection for a prefetch, null to skip it
+     */
+    public NavigatorPrefetcher(MetadataCache cache, SchemaChangeDetector.ConnectionProvider connectionProvider) {
+        this.cache = cache;
+        this.connectionProvider = connectionProvider;
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16), r -> {
+            Thread thread = new Thread(r, "jdbc-proxy-prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Records a navigator query and prefetches the likely next queries.
+     */
+    public synchronized void observe(String rule, String sql, List<Object> binds) {
+        long now = System.currentTimeMillis();
+        if (previousRule != null && now - previousTime <= MAX_GAP_MILLIS) {
+            learn(previousRule, previousBinds, rule, sql, binds);
+        }
+        previousRule = rule;
+        previousBinds = new ArrayList<>(binds);
+        previousTime = now;
+        predict(rule, previousBinds);
+    }
+
+    private void learn(String fromRule, List<Object> fromBinds, String toRule, String sql, List<Object> toBinds) {
+        int[] mapping = new int[toBinds.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = toBinds.get(i) == null ? -1 : fromBinds.indexOf(toBinds.get(i));
+        }
+        Map<String, Transition> next = transitions.computeIfAbsent(fromRule, k -> new HashMap<>());
+        Transition transition = next.get(toRule);
+        if (transition == null || !transition.sql.equals(sql) || transition.bindMapping.length != mapping.length) {
+            transition = new Transition(sql, mapping);
+            next.put(toRule, transition);
+        } else {
+            for (int i = 0; i < mapping.length; i++) {
+                if (transition.bindMapping[i] != mapping[i]) {
+                    // value passed differently than before
+                    transition.bindMapping[i] = -1;
+                }
+            }
+        }
+        transition.count++;
+        totals.merge(fromRule, 1, Integer::sum);
+    }
+
+    private void predict(String rule, List<Object> binds) {
+        Map<String, Transition> next = transitions.get(rule);
+        if (next == null) {
+            return;
+        }
+        int total = totals.get(rule);
+        for (Transition transition : next.values()) {
+            if (transition.count >= MIN_OBSERVATIONS && (double) transition.count / total >= MIN_PROBABILITY
+                    && transition.isPrefetchable()) {
+                List<Object> nextBinds = new ArrayList<>(transition.bindMapping.length);
+                for (int index : transition.bindMapping) {
+                    nextBinds.add(binds.get(index));
+                }
+                submit(transition.sql, nextBinds);
+            }
+        }
+    }
+
+    private void submit(String sql, List<Object> binds) {
+        List<Object> key = new ArrayList<>(binds);
+        key.add(0, sql);
+        if (cache.contains(sql, binds) || !pending.add(key)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                prefetch(sql, binds);
+            } finally {
+                pending.remove(key);
+            }
+        });
+    }
+
+    private void prefetch(String sql, List<Object> binds) {
+        Connection conn = null;
+        try {
+            conn = connectionProvider.getConnection();
+            if (conn == null) {
+                return;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = 0; i < binds.size(); i++) {
+                    stmt.setObject(i + 1, binds.get(i));
+                }
+                cache.prefetch(sql, binds, stmt::executeQuery);
+            }
+        } catch (SQLException e) {
+            // prefetching is optional
+        } finally {
+            if (conn != null) {
+                connectionProvider.release(conn);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * for testing purposes only.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (!pending.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        return pending.isEmpty();
+    }
+}
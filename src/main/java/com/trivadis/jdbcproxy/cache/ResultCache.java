@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Caches results of read-only queries of a connection, keyed by SQL text and bind values.
+ * Entries expire after a time to live and are limited by a memory budget (least recently
+ * used entries are evicted first). The owner clears the cache on every statement which might
+ * change data or schema objects. Changes of other sessions are seen after expiry only.
+ */
+public class ResultCache {
+    /**
+     * Results with more rows are not cached.
+     */
+    public final static int MAX_ROWS = 10_000;
+    private final static Pattern WRITE = Pattern.compile(
+            "(?i)\\b(INSERT|UPDATE|DELETE|MERGE|UPSERT|REPLACE|CREATE|ALTER|DROP|TRUNCATE|GRANT|REVOKE|CALL|INTO|LOCK|NEXTVAL|SETVAL)\\b"
+                    + "|\\bFOR\\s+(SHARE|NO\\s+KEY\\s+UPDATE|KEY\\s+SHARE)\\b");
+    private final long ttl;
+    private final long budget;
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private static class Entry {
+        private final CachedResult result;
+        private final long expiresAt;
+
+        private Entry(CachedResult result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param ttl    time to live of an entry in milliseconds
+     * @param budget maximum estimated heap size of all entries in bytes
+     */
+    public ResultCache(long ttl, long budget) {
+        this.ttl = ttl;
+        this.budget = budget;
+    }
+
+    /**
+     * Returns true if the statement is a query without side effects. Queries are recognized by
+     * their leading keyword. Queries containing keywords of data changing or locking clauses
+     * (e.g. INSERT in a PostgreSQL CTE, SELECT INTO, FOR UPDATE) are not read-only. Side effects
+     * of functions called by a query cannot be detected.
+     */
+    public static boolean isReadOnly(String sql) {
+        String text = stripComments(sql).trim();
+        int start = 0;
+        while (start < text.length() && (text.charAt(start) == '(' || Character.isWhitespace(text.charAt(start)))) {
+            start++;
+        }
+        int end = start;
+        while (end < text.length() && Character.isLetter(text.charAt(end))) {
+            end++;
+        }
+        switch (text.substring(start, end).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "WITH":
+            case "VALUES":
+            case "SHOW":
+            case "DESC":
+            case "DESCRIBE":
+                return !WRITE.matcher(stripLiterals(text)).find();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the cache key of a query.
+     *
+     * @param maxRows the maximum number of rows set on the statement, limits the result
+     */
+    public static List<Object> key(String sql, List<Object> binds, int maxRows) {
+        List<Object> key = new ArrayList<>(binds.size() + 2);
+        key.add(sql);
+        key.add(maxRows);
+        key.addAll(binds);
+        return key;
+    }
+
+    /**
+     * Returns the maximum estimated heap size of all entries in bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the cached result, null if not cached or expired.
+     */
+    public synchronized CachedResult get(List<Object> key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - System.currentTimeMillis() <= 0) {
+            remove(key);
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * Caches a result. Results larger than the budget are ignored.
+     */
+    public synchronized void put(List<Object> key, CachedResult result) {
+        remove(key);
+        long resultSize = result.getSizeInBytes();
+        if (resultSize > budget) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size + resultSize > budget && iterator.hasNext()) {
+            size -= iterator.next().result.getSizeInBytes();
+            iterator.remove();
+        }
+        entries.put(key, new Entry(result, now + ttl));
+        size += resultSize;
+    }
+
+    /**
+     * Removes all entries, e.g. after a DML or DDL statement.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the estimated size of all entries in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    private void remove(List<Object> key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.result.getSizeInBytes();
+        }
+    }
+
+    private static String stripComments(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int i = 0;
+        while (i < sql.length()) {
+            if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? sql.length() : end;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 2;
+                sb.append(' ');
+            } else {
+                sb.append(sql.charAt(i++));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces string literals and quoted identifiers by blanks, they must not be mistaken for keywords.
+     */
+    private static String stripLiterals(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+                sb.append(' ');
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
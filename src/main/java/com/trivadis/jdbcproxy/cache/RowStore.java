@@ -0,0 +1,317 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store of rows with random access. Rows are kept on the heap until their
+ * estimated size exceeds a threshold. Further rows are serialized to a temporary file,
+ * which is read via memory-mapped segments. An index holds the file offset of every row.
+ * The file is deleted when the store is closed.
+ * Values which are neither common JDBC types nor serializable are stored as strings.
+ */
+public class RowStore implements AutoCloseable {
+    private final static int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private final static byte NULL = 0;
+    private final static byte STRING = 1;
+    private final static byte INTEGER = 2;
+    private final static byte LONG = 3;
+    private final static byte DOUBLE = 4;
+    private final static byte FLOAT = 5;
+    private final static byte SHORT = 6;
+    private final static byte BYTE = 7;
+    private final static byte BOOLEAN = 8;
+    private final static byte BIG_DECIMAL = 9;
+    private final static byte BIG_INTEGER = 10;
+    private final static byte BYTES = 11;
+    private final static byte DATE = 12;
+    private final static byte TIME = 13;
+    private final static byte TIMESTAMP = 14;
+    private final static byte SERIALIZED = 15;
+
+    private final long heapThreshold;
+    private final List<Object[]> heapRows = new ArrayList<>();
+    private long heapSize = 0;
+    private FileChannel channel;
+    private long fileSize = 0;
+    private long[] offsets = new long[1024];
+    private int spilledRows = 0;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * @param heapThreshold estimated heap size in bytes of the rows kept on the heap
+     */
+    public RowStore(long heapThreshold) {
+        this.heapThreshold = heapThreshold;
+    }
+
+    public int size() {
+        return heapRows.size() + spilledRows;
+    }
+
+    /**
+     * Returns true if rows have been written to disk.
+     */
+    public boolean isSpilled() {
+        return spilledRows > 0;
+    }
+
+    public void add(Object[] row) throws SQLException {
+        if (spilledRows == 0 && heapSize < heapThreshold) {
+            heapRows.add(row);
+            heapSize += estimateSize(row);
+            return;
+        }
+        try {
+            if (channel == null) {
+                // deleted on close, on Windows as soon as the mapped segments are unmapped as well
+                channel = FileChannel.open(Files.createTempFile("jdbc-proxy-", ".rows"), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            bytes.reset();
+            out.writeInt(row.length);
+            for (Object value : row) {
+                writeValue(value);
+            }
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()), fileSize);
+            if (spilledRows == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[spilledRows++] = fileSize;
+            fileSize += bytes.size();
+        } catch (IOException e) {
+            throw new SQLException("Cannot write rows to temporary file.", e);
+        }
+    }
+
+    /**
+     * Returns a row, 0-based.
+     */
+    public Object[] get(int index) throws SQLException {
+        if (index < heapRows.size()) {
+            return heapRows.get(index);
+        }
+        int spilled = index - heapRows.size();
+        long start = offsets[spilled];
+        long end = spilled + 1 < spilledRows ? offsets[spilled + 1] : fileSize;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(start, (int) (end - start))));
+            Object[] row = new Object[in.readInt()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = readValue(in);
+            }
+            return row;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SQLException("Cannot read rows from temporary file.", e);
+        }
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        byte[] result = new byte[length];
+        int segment = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position % SEGMENT_SIZE);
+        if (offset + length > SEGMENT_SIZE) {
+            // crosses a segment boundary
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            while (buffer.hasRemaining()) {
+                channel.read(buffer, position + buffer.position());
+            }
+            return result;
+        }
+        if (segment >= segments.length) {
+            segments = Arrays.copyOf(segments, segment + 1);
+        }
+        MappedByteBuffer buffer = segments[segment];
+        if (buffer == null || buffer.capacity() < offset + length) {
+            long segmentStart = (long) segment * SEGMENT_SIZE;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, fileSize - segmentStart));
+            segments[segment] = buffer;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(result);
+        return result;
+    }
+
+    private static long estimateSize(Object[] row) {
+        long size = 16 + 8L * row.length;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 32;
+            }
+        }
+        return size;
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeUTF(value.toString());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            out.writeInt(serialized.size());
+            out.write(serialized.toByteArray());
+        } else {
+            writeValue(value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case BIG_INTEGER:
+                return new BigInteger(in.readUTF());
+            case BYTES:
+                return readBytes(in);
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case DATE:
+                return new Date(in.readLong());
+            case TIME:
+                return new Time(in.readLong());
+            case SERIALIZED:
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return ois.readObject();
+                }
+            default:
+                throw new IOException("Unknown value type " + type + ".");
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] result = new byte[in.readInt()];
+        in.readFully(result);
+        return result;
+    }
+
+    /**
+     * Releases the rows and deletes the temporary file.
+     */
+    @Override
+    public void close() {
+        heapRows.clear();
+        segments = new MappedByteBuffer[0];
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+}
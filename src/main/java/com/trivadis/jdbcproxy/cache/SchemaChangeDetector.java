@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.cache;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a cheap change marker per schema from the target database. A marker changes
+ * whenever an object in the schema is created, altered or dropped.
+ */
+public class SchemaChangeDetector {
+    private final static long MIN_CHECK_INTERVAL_MILLIS = 1000;
+    private final ConnectionProvider connectionProvider;
+    private final String query;
+    private Map<String, String> markers = Collections.emptyMap();
+    private long checkedAt = 0;
+
+    /**
+     * Provides the connection the markers are read from. It is resolved on every check,
+     * since the connection providing the cached results may change. A returned connection is
+     * passed to release() after use, e.g. to make a shared connection available to other threads.
+     */
+    public interface ConnectionProvider {
+        Connection getConnection() throws SQLException;
+
+        default void release(Connection connection) {
+        }
+    }
+
+    SchemaChangeDetector(ConnectionProvider connectionProvider, String query) {
+        this.connectionProvider = connectionProvider;
+        this.query = query;
+    }
+
+    /**
+     * Returns a detector for the target product or null, if the product is not supported.
+     */
+    public static SchemaChangeDetector forProduct(ConnectionProvider connectionProvider, String product) {
+        String query = getMarkerQuery(product);
+        return query == null ? null : new SchemaChangeDetector(connectionProvider, query);
+    }
+
+    static String getMarkerQuery(String product) {
+        if ("SQLite".equals(product)) {
+            return "SELECT 'main' AS schema_name, schema_version AS marker FROM pragma_schema_version()";
+        } else if ("PostgreSQL".equals(product)) {
+            // xmin changes on every update of a catalog row, count and oid detect drops and creates,
+            // triggers, constraints, columns, defaults and comments may change without touching pg_class
+            return "SELECT n.nspname AS schema_name,\n" +
+                    "       concat((SELECT concat(count(*), ':', max(c.oid::bigint), ':', max(c.xmin::text::bigint))\n" +
+                    "                 FROM pg_class c\n" +
+                    "                WHERE c.relnamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(p.oid::bigint), ':', max(p.xmin::text::bigint))\n" +
+                    "                 FROM pg_proc p\n" +
+                    "                WHERE p.pronamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(t.oid::bigint), ':', max(t.xmin::text::bigint))\n" +
+                    "                 FROM pg_trigger t\n" +
+                    "                 JOIN pg_class c ON c.oid = t.tgrelid\n" +
+                    "                WHERE c.relnamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(o.oid::bigint), ':', max(o.xmin::text::bigint))\n" +
+                    "                 FROM pg_constraint o\n" +
+                    "                WHERE o.connamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(a.xmin::text::bigint))\n" +
+                    "                 FROM pg_attribute a\n" +
+                    "                 JOIN pg_class c ON c.oid = a.attrelid\n" +
+                    "                WHERE c.relnamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(d.oid::bigint), ':', max(d.xmin::text::bigint))\n" +
+                    "                 FROM pg_attrdef d\n" +
+                    "                 JOIN pg_class c ON c.oid = d.adrelid\n" +
+                    "                WHERE c.relnamespace = n.oid), '/',\n" +
+                    "              (SELECT concat(count(*), ':', max(e.xmin::text::bigint))\n" +
+                    "                 FROM pg_description e\n" +
+                    "                 JOIN pg_class c ON c.oid = e.objoid AND e.classoid = 'pg_class'::regclass\n" +
+                    "                WHERE c.relnamespace = n.oid)) AS marker\n" +
+                    "  FROM pg_namespace n";
+        } else if ("Snowflake".equals(product)) {
+            return "SELECT schema_name, count(*) || ':' || max(last_altered) AS marker\n" +
+                    "  FROM (SELECT table_schema AS schema_name, last_altered FROM information_schema.tables\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT function_schema, last_altered FROM information_schema.functions\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT procedure_schema, last_altered FROM information_schema.procedures)\n" +
+                    " GROUP BY schema_name";
+        } else if ("H2".equals(product)) {
+            // last_modification changes on DML as well, therefore the marker is a checksum
+            // over the definitions of all objects in the schema
+            return "SELECT schema_name, concat(count(*), ':', sum(ora_hash(definition))) AS marker\n" +
+                    "  FROM (SELECT table_schema AS schema_name,\n" +
+                    "               concat_ws(' ', table_name, table_type, remarks) AS definition\n" +
+                    "          FROM information_schema.tables\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT table_schema, concat_ws(' ', table_name, column_name, ordinal_position, data_type,\n" +
+                    "               character_maximum_length, numeric_precision, numeric_scale, is_nullable,\n" +
+                    "               column_default, remarks)\n" +
+                    "          FROM information_schema.columns\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT table_schema, concat_ws(' ', table_name, view_definition)\n" +
+                    "          FROM information_schema.views\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT constraint_schema, concat_ws(' ', table_name, constraint_name, constraint_type)\n" +
+                    "          FROM information_schema.table_constraints\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT index_schema, concat_ws(' ', table_name, index_name, index_type_name)\n" +
+                    "          FROM information_schema.indexes\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT routine_schema, concat_ws(' ', specific_name, routine_definition)\n" +
+                    "          FROM information_schema.routines\n" +
+                    "        UNION ALL\n" +
+                    "        SELECT trigger_schema, concat_ws(' ', event_object_table, trigger_name)\n" +
+                    "          FROM information_schema.triggers)\n" +
+                    " GROUP BY schema_name";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the markers per schema. The markers are read at most once per second.
+     * The returned map is never changed, a new map is returned when markers are re-read.
+     */
+    public synchronized Map<String, String> getMarkers() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - checkedAt >= MIN_CHECK_INTERVAL_MILLIS) {
+            Map<String, String> current = new HashMap<>();
+            Connection conn = connectionProvider.getConnection();
+            try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(query)) {
+                while (rs.next()) {
+                    current.put(rs.getString(1), rs.getString(2));
+                }
+            } finally {
+                connectionProvider.release(conn);
+            }
+            if (!current.equals(markers)) {
+                markers = Collections.unmodifiableMap(current);
+            }
+            checkedAt = now;
+        }
+        return markers;
+    }
+
+    /**
+     * Forces a re-read of the markers on the next call of {@link #getMarkers()}.
+     */
+    public synchronized void recheck() {
+        checkedAt = 0;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.jfr;
+
+/**
+ * Emits events of proxy operations. An event is started via {@link #begin(int)} and
+ * committed via the method of its type.
+ */
+interface EventSink {
+    /**
+     * Starts an event, returns null if the event type is not recorded.
+     */
+    Object begin(int type);
+
+    void commitConnect(Object event, String targetUrl);
+
+    void commitRewrite(Object event, String rule, String product, String sql);
+
+    void commitPrepare(Object event, String sql);
+
+    void commitExecute(Object event, String sql);
+
+    void commitFetch(Object event, String sql, long row);
+
+    void commitMetadata(Object event, String method);
+}
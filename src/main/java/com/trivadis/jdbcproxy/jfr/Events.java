@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.jfr;
+
+/**
+ * Java Flight Recorder events of proxy operations. The events are recorded, if the JDK provides
+ * the JFR API (JDK 11 or later, JDK 8u262 or later). Otherwise all methods are no-ops.
+ * Starting an event which is not recorded returns null, the call of the commit method
+ * can be skipped then.
+ * <pre>
+ * Object event = Events.begin(Events.EXECUTE);
+ * ...
+ * if (event != null) {
+ *     Events.commitExecute(event, sql);
+ * }
+ * </pre>
+ */
+public final class Events {
+    public final static int CONNECT = 0;
+    public final static int REWRITE = 1;
+    public final static int PREPARE = 2;
+    public final static int EXECUTE = 3;
+    public final static int FETCH = 4;
+    public final static int METADATA = 5;
+    private final static EventSink SINK = createSink();
+
+    private Events() {
+        super();
+    }
+
+    private static EventSink createSink() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            // loaded via reflection, the event classes must not be loaded without JFR
+            return (EventSink) Class.forName("com.trivadis.jdbcproxy.jfr.JfrEventSink").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public static Object begin(int type) {
+        return SINK == null ? null : SINK.begin(type);
+    }
+
+    public static void commitConnect(Object event, String targetUrl) {
+        SINK.commitConnect(event, targetUrl);
+    }
+
+    public static void commitRewrite(Object event, String rule, String product, String sql) {
+        SINK.commitRewrite(event, rule, product, sql);
+    }
+
+    public static void commitPrepare(Object event, String sql) {
+        SINK.commitPrepare(event, sql);
+    }
+
+    public static void commitExecute(Object event, String sql) {
+        SINK.commitExecute(event, sql);
+    }
+
+    public static void commitFetch(Object event, String sql, long row) {
+        SINK.commitFetch(event, sql, row);
+    }
+
+    public static void commitMetadata(Object event, String method) {
+        SINK.commitMetadata(event, method);
+    }
+}
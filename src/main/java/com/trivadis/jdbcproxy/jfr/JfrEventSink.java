@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.jfr;
+
+import com.trivadis.jdbcproxy.metrics.SqlFingerprint;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Event sink emitting JFR events. Must be loaded only if the JFR API is available, see {@link Events}.
+ */
+class JfrEventSink implements EventSink {
+
+    @Category("JDBC Proxy")
+    @StackTrace(false)
+    static abstract class StatementEvent extends Event {
+        @Label("Fingerprint")
+        @Description("Hash of the normalized SQL statement")
+        String fingerprint;
+
+        @Label("SQL")
+        @Description("Normalized SQL statement, literals are replaced by ?")
+        String sql;
+
+        void setStatement(String statement) {
+            sql = SqlFingerprint.normalize(statement);
+            fingerprint = SqlFingerprint.hash(sql);
+        }
+    }
+
+    @Name("com.trivadis.jdbcproxy.Connect")
+    @Label("Connect")
+    @Category("JDBC Proxy")
+    static class ConnectEvent extends Event {
+        @Label("Target URL")
+        String targetUrl;
+    }
+
+    @Name("com.trivadis.jdbcproxy.Rewrite")
+    @Label("Rewrite")
+    @StackTrace(false)
+    static class RewriteEvent extends StatementEvent {
+        @Label("Rule")
+        @Description("Full rewrite rule that matched, null if none matched")
+        String rule;
+
+        @Label("Product")
+        String product;
+    }
+
+    @Name("com.trivadis.jdbcproxy.Prepare")
+    @Label("Prepare")
+    static class PrepareEvent extends StatementEvent {
+    }
+
+    @Name("com.trivadis.jdbcproxy.Execute")
+    @Label("Execute")
+    static class ExecuteEvent extends StatementEvent {
+    }
+
+    @Name("com.trivadis.jdbcproxy.Fetch")
+    @Label("Fetch")
+    @Description("Call of ResultSet.next on the target taking longer than the threshold, usually a round trip fetching a batch")
+    @Threshold("1 ms")
+    static class FetchEvent extends StatementEvent {
+        @Label("Row")
+        @Description("Number of the row fetched")
+        long row;
+    }
+
+    @Name("com.trivadis.jdbcproxy.Metadata")
+    @Label("Metadata Call")
+    @Category("JDBC Proxy")
+    @StackTrace(false)
+    static class MetadataEvent extends Event {
+        @Label("Method")
+        String method;
+    }
+
+    @Override
+    public Object begin(int type) {
+        Event event;
+        switch (type) {
+            case Events.CONNECT:
+                event = new ConnectEvent();
+                break;
+            case Events.REWRITE:
+                event = new RewriteEvent();
+                break;
+            case Events.PREPARE:
+                event = new PrepareEvent();
+                break;
+            case Events.EXECUTE:
+                event = new ExecuteEvent();
+                break;
+            case Events.FETCH:
+                event = new FetchEvent();
+                break;
+            default:
+                event = new MetadataEvent();
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitConnect(Object event, String targetUrl) {
+        ConnectEvent e = (ConnectEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.targetUrl = targetUrl;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void commitRewrite(Object event, String rule, String product, String sql) {
+        RewriteEvent e = (RewriteEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.rule = rule;
+            e.product = product;
+            e.setStatement(sql);
+            e.commit();
+        }
+    }
+
+    @Override
+    public void commitPrepare(Object event, String sql) {
+        commitStatement((StatementEvent) event, sql);
+    }
+
+    @Override
+    public void commitExecute(Object event, String sql) {
+        commitStatement((StatementEvent) event, sql);
+    }
+
+    @Override
+    public void commitFetch(Object event, String sql, long row) {
+        FetchEvent e = (FetchEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.row = row;
+            e.setStatement(sql);
+            e.commit();
+        }
+    }
+
+    @Override
+    public void commitMetadata(Object event, String method) {
+        MetadataEvent e = (MetadataEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.method = method;
+            e.commit();
+        }
+    }
+
+    private static void commitStatement(StatementEvent event, String sql) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setStatement(sql);
+            event.commit();
+        }
+    }
+}
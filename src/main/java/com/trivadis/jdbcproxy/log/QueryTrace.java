@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Phase timings of a statement execution. When finished, the trace is passed to the traffic
+ * recorder and to the slow query log, if its total duration reaches the threshold of the log.
+ * A trace is used by a single thread.
+ */
+public class QueryTrace {
+    /**
+     * Bind value which is not kept, e.g. a stream.
+     */
+    public final static Object UNKNOWN = new Object();
+    private final SlowQueryLog log;
+    private final TrafficRecorder recorder;
+    private final int session;
+    final long timestamp = System.currentTimeMillis();
+    final String originalSql;
+    final String sql;
+    final String product;
+    final List<Object> binds;
+    final long prepareNanos;
+    long executeNanos;
+    long fetchNanos;
+    long rows = -1;
+    String error;
+    private boolean finished = false;
+
+    /**
+     * @param log          slow query log, null if disabled
+     * @param recorder     traffic recorder, null if disabled
+     * @param session      session number of the connection in the recorder
+     * @param binds        bind values, null if none
+     * @param prepareNanos duration of the prepare call, 0 if not prepared for this execution
+     */
+    public QueryTrace(SlowQueryLog log, TrafficRecorder recorder, int session, String originalSql, String sql,
+                      String product, List<Object> binds, long prepareNanos) {
+        this.log = log;
+        this.recorder = recorder;
+        this.session = session;
+        this.originalSql = originalSql;
+        this.sql = sql;
+        this.product = product;
+        this.binds = binds == null ? null : new ArrayList<>(binds);
+        this.prepareNanos = prepareNanos;
+    }
+
+    /**
+     * Records the execute call.
+     *
+     * @param updateCount number of changed rows, -1 if unknown or a query
+     * @param error       message of the failure, null if successful
+     */
+    public void executed(long nanos, long updateCount, String error) {
+        executeNanos = nanos;
+        rows = updateCount;
+        this.error = error;
+    }
+
+    /**
+     * Records a fetch call.
+     */
+    public void fetched(long nanos, int rows) {
+        fetchNanos += nanos;
+        this.rows = Math.max(this.rows, 0) + rows;
+    }
+
+    /**
+     * Passes the trace to the recorder and, if slow, to the log. Subsequent calls are ignored.
+     */
+    public void finish() {
+        if (!finished) {
+            finished = true;
+            if (recorder != null) {
+                recorder.offer(this);
+            }
+            if (log != null && getTotalNanos() >= log.getThresholdNanos()) {
+                log.offer(this);
+            }
+        }
+    }
+
+    int getSession() {
+        return session;
+    }
+
+    public long getTotalNanos() {
+        return prepareNanos + executeNanos + fetchNanos;
+    }
+
+    /**
+     * Returns the trace as a single line JSON object.
+     */
+    String toJson() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"timestamp\":").append(timestamp);
+        sb.append(",\"product\":");
+        appendString(sb, product);
+        sb.append(",\"totalMs\":").append(millis(getTotalNanos()));
+        sb.append(",\"prepareMs\":").append(millis(prepareNanos));
+        sb.append(",\"executeMs\":").append(millis(executeNanos));
+        sb.append(",\"fetchMs\":").append(millis(fetchNanos));
+        sb.append(",\"rows\":").append(rows);
+        sb.append(",\"error\":");
+        appendString(sb, error);
+        sb.append(",\"originalSql\":");
+        appendString(sb, originalSql);
+        sb.append(",\"sql\":");
+        appendString(sb, sql);
+        sb.append(",\"binds\":");
+        if (binds == null) {
+            sb.append("null");
+        } else {
+            sb.append('[');
+            for (int i = 0; i < binds.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                Object value = binds.get(i);
+                if (value == UNKNOWN) {
+                    appendString(sb, "?");
+                } else if (value == null || value instanceof Number || value instanceof Boolean) {
+                    sb.append(value);
+                } else {
+                    appendString(sb, value.toString());
+                }
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0).replace(',', '.');
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
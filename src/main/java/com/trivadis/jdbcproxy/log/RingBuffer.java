@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer. Producers never
+ * block, an element is dropped if the buffer is full.
+ */
+public class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head = 0;
+
+    /**
+     * @param capacity number of elements, rounded up to the next power of two
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element, returns false if the buffer is full and the element was dropped.
+     */
+    public boolean offer(T element) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.lazySet((int) t & mask, element);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element, returns null if empty. Must be called by a single consumer only.
+     */
+    public T poll() {
+        int index = (int) head & mask;
+        T element = slots.get(index);
+        if (element != null) {
+            // the slot is released before head is moved, producers check head only
+            slots.lazySet(index, null);
+            head = head + 1;
+        }
+        return element;
+    }
+
+    /**
+     * Returns the number of elements dropped since creation.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log of statements taking longer than a threshold. Executing threads only put traces into a ring
+ * buffer. A background thread writes them as JSON lines to the log file, which is rotated when it
+ * exceeds the maximum size (file.1 is the most recent backup). Connections using the same file share
+ * a log, the threshold of the first connection applies.
+ */
+public class SlowQueryLog {
+    private final static Map<String, SlowQueryLog> LOGS = new ConcurrentHashMap<>();
+    private final static int CAPACITY = 1024;
+    private final static long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private final File file;
+    private final long thresholdNanos;
+    private final long maxFileSize;
+    private final int backups;
+    private final RingBuffer<QueryTrace> buffer = new RingBuffer<>(CAPACITY);
+    private final Thread writer;
+
+    SlowQueryLog(File file, long thresholdMillis, long maxFileSize, int backups) {
+        this.file = file;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.maxFileSize = maxFileSize;
+        this.backups = backups;
+        writer = new Thread(this::write, "jdbc-proxy-slow-query-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the log writing to the file, a new log is created on first use.
+     *
+     * @param maxFileSize size in bytes after which the file is rotated
+     * @param backups     number of rotated files to keep
+     */
+    public static SlowQueryLog getInstance(String fileName, long thresholdMillis, long maxFileSize, int backups) {
+        File file = new File(fileName).getAbsoluteFile();
+        return LOGS.computeIfAbsent(file.getPath(), k -> new SlowQueryLog(file, thresholdMillis, maxFileSize, backups));
+    }
+
+    long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of traces dropped since the buffer was full.
+     */
+    public long getDropped() {
+        return buffer.getDropped();
+    }
+
+    void offer(QueryTrace trace) {
+        buffer.offer(trace);
+    }
+
+    /**
+     * Writes buffered traces to the file, blocks until done. Intended for tests and shutdown.
+     */
+    public synchronized void flush() {
+        QueryTrace trace = buffer.poll();
+        OutputStream out = null;
+        long size = file.length();
+        try {
+            while (trace != null) {
+                byte[] line = (trace.toJson() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                if (size > 0 && size + line.length > maxFileSize) {
+                    if (out != null) {
+                        out.close();
+                        out = null;
+                    }
+                    rotate();
+                    size = 0;
+                }
+                if (out == null) {
+                    out = new FileOutputStream(file, true);
+                }
+                out.write(line);
+                size += line.length;
+                trace = buffer.poll();
+            }
+        } catch (IOException e) {
+            // logging is best effort, it must not affect the application
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        Files.deleteIfExists(backup(backups).toPath());
+        for (int i = backups - 1; i >= 1; i--) {
+            if (backup(i).exists()) {
+                Files.move(backup(i).toPath(), backup(i + 1).toPath());
+            }
+        }
+        if (backups < 1) {
+            Files.delete(file.toPath());
+        } else {
+            Files.move(file.toPath(), backup(1).toPath());
+        }
+    }
+
+    private File backup(int i) {
+        return new File(file.getPath() + "." + i);
+    }
+
+    private void write() {
+        while (true) {
+            LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            flush();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A statement execution read from a traffic log written by {@link TrafficRecorder}.
+ * <p>
+ * The log starts with the magic bytes "JPTR" and a version byte, followed by entries. Each entry
+ * starts with a type byte. Integers are written as variable-length longs (7 bits per byte), signed
+ * values are zigzag encoded.
+ * <ul>
+ * <li>STRING: UTF-8 length and bytes, the string gets the next number starting with 1</li>
+ * <li>EXECUTION: timestamp delta in ms, session, string numbers of original SQL, SQL and product
+ * (0 for null), prepare, execute and fetch duration in microseconds, rows (-1 if unknown), failed flag, bind values</li>
+ * <li>RESET: forgets all strings and restarts the timestamp delta</li>
+ * </ul>
+ */
+public class TrafficRecord {
+    final static byte[] MAGIC = {'J', 'P', 'T', 'R', 1};
+    final static int STRING = 1;
+    final static int EXECUTION = 2;
+    final static int RESET = 3;
+    final static int NULL = 0;
+    final static int UNKNOWN = 1;
+    final static int LONG = 2;
+    final static int DOUBLE = 3;
+    final static int DECIMAL = 4;
+    final static int BOOLEAN = 5;
+    final static int STRING_VALUE = 6;
+    final static int DATE = 7;
+    final static int TIME = 8;
+    final static int TIMESTAMP = 9;
+    private final long timestamp;
+    private final int session;
+    private final String originalSql;
+    private final String sql;
+    private final String product;
+    private final long prepareMicros;
+    private final long executeMicros;
+    private final long fetchMicros;
+    private final long rows;
+    private final boolean failed;
+    private final List<Object> binds;
+
+    TrafficRecord(long timestamp, int session, String originalSql, String sql, String product, long prepareMicros,
+                  long executeMicros, long fetchMicros, long rows, boolean failed, List<Object> binds) {
+        this.timestamp = timestamp;
+        this.session = session;
+        this.originalSql = originalSql;
+        this.sql = sql;
+        this.product = product;
+        this.prepareMicros = prepareMicros;
+        this.executeMicros = executeMicros;
+        this.fetchMicros = fetchMicros;
+        this.rows = rows;
+        this.failed = failed;
+        this.binds = binds;
+    }
+
+    /**
+     * Reads all executions of a traffic log in the order of recording.
+     */
+    public static List<TrafficRecord> read(File file) throws IOException {
+        List<TrafficRecord> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a traffic log.");
+            }
+            List<String> strings = new ArrayList<>();
+            strings.add(null);
+            long timestamp = 0;
+            int type;
+            while ((type = in.read()) >= 0) {
+                if (type == STRING) {
+                    strings.add(readString(in));
+                } else if (type == RESET) {
+                    strings.subList(1, strings.size()).clear();
+                    timestamp = 0;
+                } else if (type == EXECUTION) {
+                    timestamp += unZigZag(readVarLong(in));
+                    int session = (int) readVarLong(in);
+                    String originalSql = strings.get((int) readVarLong(in));
+                    String sql = strings.get((int) readVarLong(in));
+                    String product = strings.get((int) readVarLong(in));
+                    long prepareMicros = readVarLong(in);
+                    long executeMicros = readVarLong(in);
+                    long fetchMicros = readVarLong(in);
+                    long rows = unZigZag(readVarLong(in));
+                    boolean failed = in.readBoolean();
+                    int bindCount = (int) readVarLong(in);
+                    List<Object> binds = new ArrayList<>(bindCount);
+                    for (int i = 0; i < bindCount; i++) {
+                        binds.add(readBind(in));
+                    }
+                    records.add(new TrafficRecord(timestamp, session, originalSql, sql, product, prepareMicros,
+                            executeMicros, fetchMicros, rows, failed, Collections.unmodifiableList(binds)));
+                } else {
+                    throw new IOException("Unknown entry type " + type + " in " + file + ".");
+                }
+            }
+        } catch (EOFException e) {
+            // incomplete last entry, e.g. the application was killed while recording
+        }
+        return records;
+    }
+
+    private static Object readBind(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case NULL:
+            case UNKNOWN:
+                return null;
+            case LONG:
+                return unZigZag(readVarLong(in));
+            case DOUBLE:
+                return in.readDouble();
+            case DECIMAL:
+                return new BigDecimal(readString(in));
+            case BOOLEAN:
+                return in.readBoolean();
+            case DATE:
+                return java.sql.Date.valueOf(readString(in));
+            case TIME:
+                return java.sql.Time.valueOf(readString(in));
+            case TIMESTAMP:
+                return java.sql.Timestamp.valueOf(readString(in));
+            case STRING_VALUE:
+                return readString(in);
+            default:
+                throw new IOException("Unknown bind type " + type + ".");
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number.");
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the start of the execution in milliseconds since epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getSession() {
+        return session;
+    }
+
+    public String getOriginalSql() {
+        return originalSql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public long getPrepareMicros() {
+        return prepareMicros;
+    }
+
+    public long getExecuteMicros() {
+        return executeMicros;
+    }
+
+    public long getFetchMicros() {
+        return fetchMicros;
+    }
+
+    /**
+     * Returns the number of fetched or changed rows, -1 if unknown.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the bind values, values which were not kept (e.g. streams) are null.
+     */
+    public List<Object> getBinds() {
+        return binds;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records all traced statement executions in a compact append-only binary log. Executing threads
+ * only put traces into a ring buffer, a background thread appends them to the file.
+ * Connections using the same file share a recorder. See {@link TrafficRecord} for the format.
+ */
+public class TrafficRecorder {
+    private final static Map<String, TrafficRecorder> RECORDERS = new ConcurrentHashMap<>();
+    private final static int CAPACITY = 4096;
+    private final static int MAX_STRINGS = 10_000;
+    private final static long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private final File file;
+    private final RingBuffer<QueryTrace> buffer = new RingBuffer<>(CAPACITY);
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final Map<String, Integer> strings = new HashMap<>();
+    private boolean started = false;
+    private long lastTimestamp = 0;
+
+    TrafficRecorder(File file) {
+        this.file = file;
+        Thread writer = new Thread(this::write, "jdbc-proxy-traffic-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns the recorder writing to the file, a new recorder is created on first use.
+     */
+    public static TrafficRecorder getInstance(String fileName) {
+        File file = new File(fileName).getAbsoluteFile();
+        return RECORDERS.computeIfAbsent(file.getPath(), k -> new TrafficRecorder(file));
+    }
+
+    /**
+     * Returns a new session number, used to identify the statements of a connection.
+     */
+    public int nextSession() {
+        return sessions.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of traces dropped since the buffer was full.
+     */
+    public long getDropped() {
+        return buffer.getDropped();
+    }
+
+    void offer(QueryTrace trace) {
+        buffer.offer(trace);
+    }
+
+    /**
+     * Writes buffered traces to the file, blocks until done. Intended for tests and shutdown.
+     */
+    public synchronized void flush() {
+        QueryTrace trace = buffer.poll();
+        if (trace == null) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            if (!started) {
+                // strings and timestamps of a previous run appended to the same file are not referenced
+                if (file.length() == 0) {
+                    out.write(TrafficRecord.MAGIC);
+                } else {
+                    out.writeByte(TrafficRecord.RESET);
+                }
+                started = true;
+            }
+            while (trace != null) {
+                writeTrace(out, trace);
+                trace = buffer.poll();
+            }
+        } catch (IOException e) {
+            // recording is best effort, it must not affect the application
+        }
+    }
+
+    private void writeTrace(DataOutputStream out, QueryTrace trace) throws IOException {
+        if (strings.size() + 3 > MAX_STRINGS) {
+            out.writeByte(TrafficRecord.RESET);
+            strings.clear();
+            lastTimestamp = 0;
+        }
+        int originalSql = string(out, trace.originalSql);
+        int sql = string(out, trace.sql);
+        int product = string(out, trace.product);
+        out.writeByte(TrafficRecord.EXECUTION);
+        TrafficRecord.writeVarLong(out, TrafficRecord.zigZag(trace.timestamp - lastTimestamp));
+        lastTimestamp = trace.timestamp;
+        TrafficRecord.writeVarLong(out, trace.getSession());
+        TrafficRecord.writeVarLong(out, originalSql);
+        TrafficRecord.writeVarLong(out, sql);
+        TrafficRecord.writeVarLong(out, product);
+        TrafficRecord.writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(trace.prepareNanos));
+        TrafficRecord.writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(trace.executeNanos));
+        TrafficRecord.writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(trace.fetchNanos));
+        TrafficRecord.writeVarLong(out, TrafficRecord.zigZag(trace.rows));
+        out.writeBoolean(trace.error != null);
+        if (trace.binds == null) {
+            TrafficRecord.writeVarLong(out, 0);
+        } else {
+            TrafficRecord.writeVarLong(out, trace.binds.size());
+            for (Object value : trace.binds) {
+                writeBind(out, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the string, the string is defined on first use. 0 represents null.
+     */
+    private int string(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            return 0;
+        }
+        Integer id = strings.get(value);
+        if (id == null) {
+            id = strings.size() + 1;
+            strings.put(value, id);
+            out.writeByte(TrafficRecord.STRING);
+            TrafficRecord.writeString(out, value);
+        }
+        return id;
+    }
+
+    private static void writeBind(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TrafficRecord.NULL);
+        } else if (value == QueryTrace.UNKNOWN) {
+            out.writeByte(TrafficRecord.UNKNOWN);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TrafficRecord.LONG);
+            TrafficRecord.writeVarLong(out, TrafficRecord.zigZag(((Number) value).longValue()));
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TrafficRecord.DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TrafficRecord.DECIMAL);
+            TrafficRecord.writeString(out, value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TrafficRecord.BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof java.sql.Timestamp) {
+            out.writeByte(TrafficRecord.TIMESTAMP);
+            TrafficRecord.writeString(out, value.toString());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TrafficRecord.DATE);
+            TrafficRecord.writeString(out, value.toString());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(TrafficRecord.TIME);
+            TrafficRecord.writeString(out, value.toString());
+        } else {
+            out.writeByte(TrafficRecord.STRING_VALUE);
+            TrafficRecord.writeString(out, value.toString());
+        }
+    }
+
+    private void write() {
+        while (true) {
+            LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            flush();
+        }
+    }
+}
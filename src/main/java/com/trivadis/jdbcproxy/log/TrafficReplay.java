@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.log;
+
+import com.trivadis.jdbcproxy.metrics.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-runs the sessions of a traffic log against a target. Each session is replayed on its own
+ * connection, the statements of a session in the recorded order.
+ */
+public class TrafficReplay {
+    private final List<TrafficRecord> records;
+    private final String url;
+    private final Properties info;
+    private final int concurrency;
+    private final double speed;
+    private final boolean rewritten;
+    private final LatencyHistogram recordedLatency = new LatencyHistogram();
+    private final LatencyHistogram replayedLatency = new LatencyHistogram();
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rowsDiffer = new AtomicLong();
+
+    /**
+     * @param url         JDBC URL of the target, e.g. jdbc:proxy:jdbc:h2:mem:replay
+     * @param concurrency number of sessions replayed at the same time
+     * @param speed       factor applied to the recorded pace within a session, e.g. 2 to replay twice
+     *                    as fast, 0 to run the statements without pauses
+     * @param rewritten   true to run the SQL sent to the recorded target, false to run the original SQL
+     */
+    public TrafficReplay(List<TrafficRecord> records, String url, Properties info, int concurrency, double speed,
+                         boolean rewritten) {
+        this.records = records;
+        this.url = url;
+        this.info = info;
+        this.concurrency = Math.max(concurrency, 1);
+        this.speed = speed;
+        this.rewritten = rewritten;
+    }
+
+    /**
+     * Replays all sessions and returns a summary.
+     */
+    public String run() throws InterruptedException {
+        Map<Integer, List<TrafficRecord>> sessions = new LinkedHashMap<>();
+        for (TrafficRecord record : records) {
+            sessions.computeIfAbsent(record.getSession(), k -> new ArrayList<>()).add(record);
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        for (List<TrafficRecord> session : sessions.values()) {
+            executor.execute(() -> replay(session));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Replayed %d statements of %d sessions in %.3f s, %d failed, %d with different row count.%n",
+                statements.get(), sessions.size(), elapsed / 1e9, failed.get(), rowsDiffer.get()));
+        sb.append(String.format("%-8s %12s %12s%n", "ms", "recorded", "replayed"));
+        for (double percentile : new double[]{50, 90, 99}) {
+            sb.append(String.format("%-8s %12.3f %12.3f%n", "p" + (int) percentile,
+                    recordedLatency.getPercentile(percentile) / 1e6, replayedLatency.getPercentile(percentile) / 1e6));
+        }
+        sb.append(String.format("%-8s %12.3f %12.3f%n", "max", recordedLatency.getMax() / 1e6, replayedLatency.getMax() / 1e6));
+        sb.append(String.format("%-8s %12.3f %12.3f%n", "total", recordedLatency.getSum() / 1e6, replayedLatency.getSum() / 1e6));
+        return sb.toString();
+    }
+
+    private void replay(List<TrafficRecord> session) {
+        try (Connection conn = DriverManager.getConnection(url, info)) {
+            long first = session.get(0).getTimestamp();
+            long start = System.nanoTime();
+            for (TrafficRecord record : session) {
+                String sql = rewritten ? record.getSql() : record.getOriginalSql();
+                if (sql == null) {
+                    // e.g. a batch, the statements are not known
+                    continue;
+                }
+                if (speed > 0) {
+                    long delay = start + (long) ((record.getTimestamp() - first) * 1_000_000 / speed) - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                }
+                statements.incrementAndGet();
+                recordedLatency.record((record.getPrepareMicros() + record.getExecuteMicros() + record.getFetchMicros()) * 1000);
+                long executionStart = System.nanoTime();
+                try {
+                    long rows = execute(conn, sql, record.getBinds(), record.getRows() >= 0 ? record.getRows() : Long.MAX_VALUE);
+                    if (!record.isFailed() && record.getRows() >= 0 && rows != record.getRows()) {
+                        rowsDiffer.incrementAndGet();
+                    }
+                } catch (SQLException e) {
+                    failed.incrementAndGet();
+                }
+                replayedLatency.record(System.nanoTime() - executionStart);
+            }
+        } catch (SQLException e) {
+            failed.addAndGet(session.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes the statement and returns the number of fetched or changed rows. Like the application,
+     * at most maxRows are fetched.
+     */
+    private static long execute(Connection conn, String sql, List<Object> binds, long maxRows) throws SQLException {
+        if (binds.isEmpty()) {
+            try (Statement stmt = conn.createStatement()) {
+                return consume(stmt, stmt.execute(sql), maxRows);
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < binds.size(); i++) {
+                stmt.setObject(i + 1, binds.get(i));
+            }
+            return consume(stmt, stmt.execute(), maxRows);
+        }
+    }
+
+    private static long consume(Statement stmt, boolean isResultSet, long maxRows) throws SQLException {
+        long rows = 0;
+        boolean resultSet = isResultSet;
+        while (true) {
+            if (resultSet) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    while (rows < maxRows && rs.next()) {
+                        rows++;
+                    }
+                }
+            } else {
+                int count = stmt.getUpdateCount();
+                if (count < 0) {
+                    return rows;
+                }
+                rows += count;
+            }
+            resultSet = stmt.getMoreResults();
+        }
+    }
+}
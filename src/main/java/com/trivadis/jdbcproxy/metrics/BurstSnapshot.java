@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable round trip totals of a burst, published via JMX. Times are in milliseconds.
+ */
+public class BurstSnapshot {
+    private final String connection;
+    private final long startTime;
+    private final double wallMillis;
+    private final double busyMillis;
+    private final long prepares;
+    private final long executes;
+    private final long fetchBatches;
+    private final long metadataCalls;
+
+    @ConstructorProperties({"connection", "startTime", "wallMillis", "busyMillis", "prepares", "executes",
+            "fetchBatches", "metadataCalls"})
+    public BurstSnapshot(String connection, long startTime, double wallMillis, double busyMillis, long prepares,
+                         long executes, long fetchBatches, long metadataCalls) {
+        this.connection = connection;
+        this.startTime = startTime;
+        this.wallMillis = wallMillis;
+        this.busyMillis = busyMillis;
+        this.prepares = prepares;
+        this.executes = executes;
+        this.fetchBatches = fetchBatches;
+        this.metadataCalls = metadataCalls;
+    }
+
+    /**
+     * Name of the connection, see {@link MetricsSnapshot#getName()}.
+     */
+    public String getConnection() {
+        return connection;
+    }
+
+    /**
+     * Start of the first round trip in milliseconds since epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Time from the start of the first to the end of the last round trip.
+     */
+    public double getWallMillis() {
+        return wallMillis;
+    }
+
+    /**
+     * Sum of the durations of all round trips. The difference to the wall time is spent in the client.
+     */
+    public double getBusyMillis() {
+        return busyMillis;
+    }
+
+    public long getPrepares() {
+        return prepares;
+    }
+
+    public long getExecutes() {
+        return executes;
+    }
+
+    public long getFetchBatches() {
+        return fetchBatches;
+    }
+
+    public long getMetadataCalls() {
+        return metadataCalls;
+    }
+
+    public long getRoundTrips() {
+        return prepares + executes + fetchBatches + metadataCalls;
+    }
+}
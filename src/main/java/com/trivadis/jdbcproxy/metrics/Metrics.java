@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operational metrics of a connection or of all connections to a target. Values recorded
+ * for a connection are recorded for its target as well. Recording is lock-free, the
+ * percentiles are calculated when a snapshot is taken.
+ */
+public class Metrics {
+    private final String name;
+    private final Metrics parent;
+    private final long createdMillis = System.currentTimeMillis();
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram prepare = new LatencyHistogram();
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+    private final LongAdder rowsFetched = new LongAdder();
+    private final LongAdder openStatements = new LongAdder();
+    private final LongAdder openResultSets = new LongAdder();
+    private final RoundTripAccounting roundTrips;
+
+    Metrics(String name, Metrics parent) {
+        this(name, parent, null);
+    }
+
+    /**
+     * @param roundTrips round trip accounting of a connection, null for target metrics
+     */
+    Metrics(String name, Metrics parent, RoundTripAccounting roundTrips) {
+        this.name = name;
+        this.parent = parent;
+        this.roundTrips = roundTrips;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordConnect(long nanos) {
+        connect.record(nanos);
+        if (parent != null) {
+            parent.recordConnect(nanos);
+        }
+    }
+
+    public void recordPrepare(long nanos) {
+        prepare.record(nanos);
+        if (roundTrips != null) {
+            roundTrips.record(RoundTripAccounting.PREPARE, nanos);
+        }
+        if (parent != null) {
+            parent.recordPrepare(nanos);
+        }
+    }
+
+    public void recordExecute(long nanos) {
+        execute.record(nanos);
+        if (roundTrips != null) {
+            roundTrips.record(RoundTripAccounting.EXECUTE, nanos);
+        }
+        if (parent != null) {
+            parent.recordExecute(nanos);
+        }
+    }
+
+    /**
+     * Records a fetch call of the target, e.g. ResultSet.next.
+     *
+     * @param rows number of rows fetched, 0 at the end of the result set
+     */
+    public void recordFetch(long nanos, int rows) {
+        fetch.record(nanos);
+        rowsFetched.add(rows);
+        if (roundTrips != null && nanos >= RoundTripAccounting.FETCH_ROUND_TRIP_MICROS * 1000L) {
+            roundTrips.record(RoundTripAccounting.FETCH, nanos);
+        }
+        if (parent != null) {
+            parent.recordFetch(nanos, rows);
+        }
+    }
+
+    /**
+     * Records a metadata call of the target returning a result set, e.g. DatabaseMetaData.getTables.
+     * Metadata calls are counted as round trips only.
+     */
+    public void recordMetadata(long nanos) {
+        if (roundTrips != null) {
+            roundTrips.record(RoundTripAccounting.METADATA, nanos);
+        }
+    }
+
+    /**
+     * Returns the recent bursts of round trips of a connection, an empty list for target metrics.
+     */
+    public List<BurstSnapshot> getBursts() {
+        return roundTrips == null ? Collections.emptyList() : roundTrips.getBursts();
+    }
+
+    public void statementOpened() {
+        openStatements.increment();
+        if (parent != null) {
+            parent.statementOpened();
+        }
+    }
+
+    public void statementClosed() {
+        openStatements.decrement();
+        if (parent != null) {
+            parent.statementClosed();
+        }
+    }
+
+    public void resultSetOpened() {
+        openResultSets.increment();
+        if (parent != null) {
+            parent.resultSetOpened();
+        }
+    }
+
+    public void resultSetClosed() {
+        openResultSets.decrement();
+        if (parent != null) {
+            parent.resultSetClosed();
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        long uptimeMillis = Math.max(1, System.currentTimeMillis() - createdMillis);
+        long executes = execute.getCount();
+        return new MetricsSnapshot(name, uptimeMillis / 1000,
+                connect.getCount(), millis(connect.getPercentile(50)), millis(connect.getPercentile(99)),
+                prepare.getCount(), millis(prepare.getPercentile(50)), millis(prepare.getPercentile(99)),
+                executes, executes * 1000.0 / uptimeMillis,
+                millis(execute.getPercentile(50)), millis(execute.getPercentile(95)),
+                millis(execute.getPercentile(99)), millis(execute.getMax()),
+                fetch.getCount(), millis(fetch.getPercentile(50)), millis(fetch.getPercentile(99)),
+                rowsFetched.sum(), openStatements.sum(), openResultSets.sum());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
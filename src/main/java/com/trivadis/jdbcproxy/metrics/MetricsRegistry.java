@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry of the metrics of all targets and open connections.
+ */
+public class MetricsRegistry implements ProxyDriverMXBean {
+    public final static String OBJECT_NAME = "com.trivadis.jdbcproxy:type=ProxyDriver";
+    public final static long DEFAULT_BURST_GAP = 500;
+    private final static MetricsRegistry INSTANCE = new MetricsRegistry();
+    private final Map<String, Metrics> targets = new ConcurrentHashMap<>();
+    private final Set<Metrics> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final StatementSketch unmatchedStatements = new StatementSketch(4, 2048, 50);
+
+    MetricsRegistry() {
+        super();
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the registry in the platform MBean server. Does nothing, if already registered
+     * (e.g. by a driver loaded via another class loader).
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException | SecurityException e) {
+            // metrics are not available via JMX
+        }
+    }
+
+    public Metrics getTargetMetrics(String targetKey) {
+        return targets.computeIfAbsent(targetKey, key -> new Metrics(key, null));
+    }
+
+    /**
+     * Returns new metrics for a connection to the target. The metrics must be passed
+     * to {@link #closeConnection(Metrics)} when the connection is closed.
+     */
+    public Metrics openConnection(String targetKey) {
+        return openConnection(targetKey, DEFAULT_BURST_GAP);
+    }
+
+    /**
+     * Returns new metrics for a connection to the target, see {@link #openConnection(String)}.
+     *
+     * @param burstGapMillis idle time in milliseconds which ends a burst of round trips
+     */
+    public Metrics openConnection(String targetKey, long burstGapMillis) {
+        String name = targetKey + " #" + connectionCount.incrementAndGet();
+        Metrics metrics = new Metrics(name, getTargetMetrics(targetKey), new RoundTripAccounting(name, burstGapMillis));
+        connections.add(metrics);
+        return metrics;
+    }
+
+    public void closeConnection(Metrics metrics) {
+        connections.remove(metrics);
+    }
+
+    @Override
+    public List<MetricsSnapshot> getTargets() {
+        return snapshots(targets.values());
+    }
+
+    @Override
+    public List<MetricsSnapshot> getConnections() {
+        return snapshots(connections);
+    }
+
+    /**
+     * Returns the sketch of statements which matched no rewrite rule.
+     */
+    public StatementSketch getUnmatchedStatementSketch() {
+        return unmatchedStatements;
+    }
+
+    @Override
+    public List<StatementSnapshot> getUnmatchedStatements() {
+        return unmatchedStatements.getTop();
+    }
+
+    @Override
+    public List<BurstSnapshot> getBursts() {
+        List<BurstSnapshot> bursts = new ArrayList<>();
+        for (Metrics m : connections) {
+            bursts.addAll(m.getBursts());
+        }
+        bursts.sort((a, b) -> Long.compare(a.getStartTime(), b.getStartTime()));
+        return bursts;
+    }
+
+    private static List<MetricsSnapshot> snapshots(Iterable<Metrics> metrics) {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (Metrics m : metrics) {
+            snapshots.add(m.snapshot());
+        }
+        snapshots.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return snapshots;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable snapshot of {@link Metrics}, published via JMX. Latencies are in milliseconds.
+ */
+public class MetricsSnapshot {
+    private final String name;
+    private final long uptimeSeconds;
+    private final long connects;
+    private final double connectMillisP50;
+    private final double connectMillisP99;
+    private final long prepares;
+    private final double prepareMillisP50;
+    private final double prepareMillisP99;
+    private final long executes;
+    private final double executesPerSecond;
+    private final double executeMillisP50;
+    private final double executeMillisP95;
+    private final double executeMillisP99;
+    private final double executeMillisMax;
+    private final long fetches;
+    private final double fetchMillisP50;
+    private final double fetchMillisP99;
+    private final long rowsFetched;
+    private final long openStatements;
+    private final long openResultSets;
+
+    @ConstructorProperties({"name", "uptimeSeconds", "connects", "connectMillisP50", "connectMillisP99",
+            "prepares", "prepareMillisP50", "prepareMillisP99", "executes", "executesPerSecond",
+            "executeMillisP50", "executeMillisP95", "executeMillisP99", "executeMillisMax",
+            "fetches", "fetchMillisP50", "fetchMillisP99", "rowsFetched", "openStatements", "openResultSets"})
+    public MetricsSnapshot(String name, long uptimeSeconds, long connects, double connectMillisP50,
+                           double connectMillisP99, long prepares, double prepareMillisP50, double prepareMillisP99,
+                           long executes, double executesPerSecond, double executeMillisP50, double executeMillisP95,
+                           double executeMillisP99, double executeMillisMax, long fetches, double fetchMillisP50,
+                           double fetchMillisP99, long rowsFetched, long openStatements, long openResultSets) {
+        this.name = name;
+        this.uptimeSeconds = uptimeSeconds;
+        this.connects = connects;
+        this.connectMillisP50 = connectMillisP50;
+        this.connectMillisP99 = connectMillisP99;
+        this.prepares = prepares;
+        this.prepareMillisP50 = prepareMillisP50;
+        this.prepareMillisP99 = prepareMillisP99;
+        this.executes = executes;
+        this.executesPerSecond = executesPerSecond;
+        this.executeMillisP50 = executeMillisP50;
+        this.executeMillisP95 = executeMillisP95;
+        this.executeMillisP99 = executeMillisP99;
+        this.executeMillisMax = executeMillisMax;
+        this.fetches = fetches;
+        this.fetchMillisP50 = fetchMillisP50;
+        this.fetchMillisP99 = fetchMillisP99;
+        this.rowsFetched = rowsFetched;
+        this.openStatements = openStatements;
+        this.openResultSets = openResultSets;
+    }
+
+    /**
+     * Normalized target URL, followed by the connection number for connection metrics.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getUptimeSeconds() {
+        return uptimeSeconds;
+    }
+
+    public long getConnects() {
+        return connects;
+    }
+
+    public double getConnectMillisP50() {
+        return connectMillisP50;
+    }
+
+    public double getConnectMillisP99() {
+        return connectMillisP99;
+    }
+
+    public long getPrepares() {
+        return prepares;
+    }
+
+    public double getPrepareMillisP50() {
+        return prepareMillisP50;
+    }
+
+    public double getPrepareMillisP99() {
+        return prepareMillisP99;
+    }
+
+    public long getExecutes() {
+        return executes;
+    }
+
+    /**
+     * Average number of executed statements per second since the metrics were created.
+     */
+    public double getExecutesPerSecond() {
+        return executesPerSecond;
+    }
+
+    public double getExecuteMillisP50() {
+        return executeMillisP50;
+    }
+
+    public double getExecuteMillisP95() {
+        return executeMillisP95;
+    }
+
+    public double getExecuteMillisP99() {
+        return executeMillisP99;
+    }
+
+    public double getExecuteMillisMax() {
+        return executeMillisMax;
+    }
+
+    public long getFetches() {
+        return fetches;
+    }
+
+    public double getFetchMillisP50() {
+        return fetchMillisP50;
+    }
+
+    public double getFetchMillisP99() {
+        return fetchMillisP99;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched;
+    }
+
+    public long getOpenStatements() {
+        return openStatements;
+    }
+
+    public long getOpenResultSets() {
+        return openResultSets;
+    }
+}
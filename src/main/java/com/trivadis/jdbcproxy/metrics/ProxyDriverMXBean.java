@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface of the proxy driver, registered as {@value MetricsRegistry#OBJECT_NAME}.
+ */
+public interface ProxyDriverMXBean {
+    /**
+     * Returns the metrics per target, including closed connections.
+     */
+    List<MetricsSnapshot> getTargets();
+
+    /**
+     * Returns the metrics of the open connections.
+     */
+    List<MetricsSnapshot> getConnections();
+
+    /**
+     * Returns the recent bursts of round trips of the open connections, oldest first.
+     */
+    List<BurstSnapshot> getBursts();
+
+    /**
+     * Returns the most frequent statements passed to the target without a full rewrite,
+     * most frequent first. Recorded for connections with the option proxy.unmatchedStatements only.
+     */
+    List<StatementSnapshot> getUnmatchedStatements();
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the round trips of a connection to its target, grouped into bursts. A burst is a sequence
+ * of round trips without an idle gap longer than the burst gap, e.g. the statements caused by
+ * opening a node in the SQL Developer navigator. The most recent bursts are kept.
+ * <p>
+ * Prepare, execute and metadata calls are counted as one round trip each. Fetch calls are counted
+ * as a round trip, if they take at least {@value #FETCH_ROUND_TRIP_MICROS} microseconds, since calls served
+ * from the batch already fetched by the driver are faster.
+ */
+public class RoundTripAccounting {
+    public final static int FETCH_ROUND_TRIP_MICROS = 100;
+    final static int PREPARE = 0;
+    final static int EXECUTE = 1;
+    final static int FETCH = 2;
+    final static int METADATA = 3;
+    private final static int MAX_BURSTS = 32;
+    private final String name;
+    private final long gapNanos;
+    private final Deque<BurstSnapshot> bursts = new ArrayDeque<>();
+    private long burstStartMillis;
+    private long burstStartNanos;
+    private long lastEndNanos;
+    private long busyNanos;
+    private final long[] counts = new long[4];
+    private boolean active = false;
+
+    /**
+     * @param gapMillis idle time in milliseconds which ends a burst
+     */
+    RoundTripAccounting(String name, long gapMillis) {
+        this.name = name;
+        this.gapNanos = TimeUnit.MILLISECONDS.toNanos(gapMillis);
+    }
+
+    /**
+     * Records a round trip which has just ended.
+     */
+    synchronized void record(int kind, long nanos) {
+        long end = System.nanoTime();
+        long start = end - nanos;
+        if (active && start - lastEndNanos > gapNanos) {
+            endBurst();
+        }
+        if (!active) {
+            active = true;
+            burstStartMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanos);
+            burstStartNanos = start;
+        }
+        counts[kind]++;
+        busyNanos += nanos;
+        lastEndNanos = Math.max(lastEndNanos, end);
+    }
+
+    private void endBurst() {
+        bursts.addLast(snapshot());
+        if (bursts.size() > MAX_BURSTS) {
+            bursts.removeFirst();
+        }
+        active = false;
+        busyNanos = 0;
+        lastEndNanos = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    private BurstSnapshot snapshot() {
+        return new BurstSnapshot(name, burstStartMillis, (lastEndNanos - burstStartNanos) / 1_000_000.0,
+                busyNanos / 1_000_000.0, counts[PREPARE], counts[EXECUTE], counts[FETCH], counts[METADATA]);
+    }
+
+    /**
+     * Returns the recent bursts, oldest first. The last burst might still be in progress.
+     */
+    public synchronized List<BurstSnapshot> getBursts() {
+        List<BurstSnapshot> result = new ArrayList<>(bursts);
+        if (active) {
+            if (System.nanoTime() - lastEndNanos > gapNanos) {
+                endBurst();
+                result.add(bursts.getLast());
+            } else {
+                result.add(snapshot());
+            }
+        }
+        return result;
+    }
+}
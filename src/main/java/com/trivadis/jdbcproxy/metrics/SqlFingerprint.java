@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.util.Locale;
+
+/**
+ * Identifies statements which differ only in literals, comments, whitespace or case.
+ */
+public class SqlFingerprint {
+    private final static int MAX_LENGTH = 4000;
+
+    private SqlFingerprint() {
+        super();
+    }
+
+    /**
+     * Returns the statement in lower case with string and numeric literals replaced by ?,
+     * without comments and with whitespace collapsed. Quoted identifiers are kept.
+     * The result is truncated to 4000 characters.
+     */
+    public static String normalize(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(Math.min(sql.length(), MAX_LENGTH));
+        int i = 0;
+        while (i < sql.length() && sb.length() < MAX_LENGTH) {
+            char c = sql.charAt(i);
+            if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? sql.length() : eol;
+            } else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? sql.length() : close + 2;
+                space(sb);
+            } else if (Character.isWhitespace(c)) {
+                space(sb);
+                i++;
+            } else if (c == '\'') {
+                i++;
+                while (i < sql.length() && (sql.charAt(i) != '\'' || sql.startsWith("''", i))) {
+                    // doubled quotes are part of the literal
+                    i += sql.startsWith("''", i) ? 2 : 1;
+                }
+                i++;
+                sb.append('?');
+            } else if (c == '"' || c == '`') {
+                int close = sql.indexOf(c, i + 1);
+                int end = close < 0 ? sql.length() : close + 1;
+                sb.append(sql, i, end);
+                i = end;
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierPart(sb.charAt(sb.length() - 1)))) {
+                while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                sb.append('?');
+            } else {
+                sb.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        int length = sb.length();
+        while (length > 0 && (sb.charAt(length - 1) == ' ' || sb.charAt(length - 1) == ';')) {
+            length--;
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * Returns a 64-bit hash of the normalized statement as hex string.
+     */
+    public static String of(String sql) {
+        return hash(normalize(sql));
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of a normalized statement as hex string.
+     */
+    public static String hash(String normalized) {
+        return String.format(Locale.ROOT, "%016x", hash64(normalized));
+    }
+
+    static long hash64(String normalized) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static void space(StringBuilder sb) {
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') {
+            sb.append(' ');
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Fixed-memory sketch of the most frequent statements. Frequencies of all fingerprints are estimated
+ * in a count-min sketch, the top K fingerprints are kept in a min-heap by estimated count. Failures
+ * and latency are counted from the time a fingerprint entered the top K.
+ */
+public class StatementSketch {
+    private final long[][] counters;
+    private final int width;
+    private final int capacity;
+    private final Map<Long, Entry> top = new HashMap<>();
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>((a, b) -> Long.compare(a.count, b.count));
+
+    private static class Entry {
+        private final long hash;
+        private final String sql;
+        private long count;
+        private long failures;
+        private long nanos;
+
+        private Entry(long hash, String sql) {
+            this.hash = hash;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * @param depth    number of hash functions of the count-min sketch
+     * @param width    number of counters per hash function
+     * @param capacity number of statements kept (K)
+     */
+    public StatementSketch(int depth, int width, int capacity) {
+        counters = new long[depth][width];
+        this.width = width;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records an execution of a statement.
+     */
+    public void record(String sql, long nanos, boolean failed) {
+        String normalized = SqlFingerprint.normalize(sql);
+        long hash = SqlFingerprint.hash64(normalized);
+        synchronized (this) {
+            long count = add(hash);
+            Entry entry = top.get(hash);
+            if (entry == null) {
+                if (top.size() >= capacity) {
+                    if (count <= heap.peek().count) {
+                        return;
+                    }
+                    top.remove(heap.poll().hash);
+                }
+                entry = new Entry(hash, normalized);
+                top.put(hash, entry);
+            } else {
+                heap.remove(entry);
+            }
+            entry.count = count;
+            entry.nanos += nanos;
+            if (failed) {
+                entry.failures++;
+            }
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * Increments the counters of the hash and returns the estimated count.
+     */
+    private long add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < counters.length; i++) {
+            int index = Math.floorMod(h1 + i * h2, width);
+            min = Math.min(min, ++counters[i][index]);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the top statements, most frequent first.
+     */
+    public synchronized List<StatementSnapshot> getTop() {
+        List<StatementSnapshot> result = new ArrayList<>(top.size());
+        for (Entry entry : top.values()) {
+            result.add(new StatementSnapshot(String.format(Locale.ROOT, "%016x", entry.hash), entry.sql,
+                    entry.count, entry.failures, entry.nanos / 1_000_000.0));
+        }
+        result.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable statistics of a statement in a {@link StatementSketch}, published via JMX.
+ */
+public class StatementSnapshot {
+    private final String fingerprint;
+    private final String sql;
+    private final long count;
+    private final long failures;
+    private final double totalMillis;
+
+    @ConstructorProperties({"fingerprint", "sql", "count", "failures", "totalMillis"})
+    public StatementSnapshot(String fingerprint, String sql, long count, long failures, double totalMillis) {
+        this.fingerprint = fingerprint;
+        this.sql = sql;
+        this.count = count;
+        this.failures = failures;
+        this.totalMillis = totalMillis;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Normalized statement, see {@link SqlFingerprint#normalize(String)}.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Estimated number of executions, might be too high but never too low.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of failed executions since the statement is in the sketch.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Cumulative execute time since the statement is in the sketch.
+     */
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+}
@@ -20,13 +20,21 @@ package com.trivadis.jdbcproxy.rewrite;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.trivadis.jdbcproxy.jfr.Events;
 import com.trivadis.jdbcproxy.rewrite.SQLRewriter.SQLRewrite;
 
 public class RewriteHelper {
+    private final static Map<String, String> ROW_LIMIT_CLAUSES = new HashMap<>();
+    private final static String IDENTIFIER = "(\"[^\"]+\"|`[^`]+`|[A-Za-z_][A-Za-z0-9_$]*)";
+    private final static Pattern COUNT_ROWS = Pattern.compile("(?is)^\\s*SELECT\\s+COUNT\\s*\\(\\s*(?:\\*|1)\\s*\\)"
+            + "(?:\\s+(?:AS\\s+)?" + IDENTIFIER + ")?\\s+FROM\\s+(?:" + IDENTIFIER + "\\s*\\.\\s*)?" + IDENTIFIER + "\\s*;?\\s*$");
     private final SQLDevNavigatorSQLRewriter rewriter = new SQLDevNavigatorSQLRewriter();
     private final List<Method> fullRewriterMethods = new ArrayList<>();
     private final List<Method> partialRewriterMethods = new ArrayList<>();
@@ -53,8 +61,29 @@ public class RewriteHelper {
      * Rewrites a sql in MySQL dialect to the target dialect (based on product).
      */
     public String rewrite(String sql, String product) {
-        String result = rewrite(fullRewriterMethods, sql, product);
-        return rewrite(partialRewriterMethods, result, product);
+        return rewriteStatement(sql, product).getSql();
+    }
+
+    /**
+     * Rewrites a sql in MySQL dialect to the target dialect (based on product)
+     * and keeps track of the full rewrite rule that matched.
+     */
+    public RewriteResult rewriteStatement(String sql, String product) {
+        Object event = Events.begin(Events.REWRITE);
+        String result = sql;
+        String rule = null;
+        for (Method method : fullRewriterMethods) {
+            String rewritten = invoke(method, result, product);
+            if (rule == null && !rewritten.equals(result)) {
+                rule = method.getName();
+            }
+            result = rewritten;
+        }
+        RewriteResult rewrite = new RewriteResult(sql, rewrite(partialRewriterMethods, result, product), rule);
+        if (event != null) {
+            Events.commitRewrite(event, rule, product, sql);
+        }
+        return rewrite;
     }
 
     /**
@@ -72,16 +101,148 @@ public class RewriteHelper {
         return sql;
     }
 
+    /**
+     * Appends a row limiting clause in the dialect of the target (based on product) to a query,
+     * so that the database does not produce more rows than maxRows. The clause is appended to the
+     * outermost query instead of wrapping it, since the order of a subquery is not guaranteed to be
+     * preserved (e.g. in Snowflake). Returns the sql unchanged, if the query
+     * limits the rows already, is not a SELECT or WITH statement or the product is not supported.
+     * MySQL is not supported, the driver passes the max rows to the server.
+     */
+    public String limitRows(String sql, String product, int maxRows) {
+        String clause = ROW_LIMIT_CLAUSES.get(product);
+        if (clause == null || maxRows <= 0) {
+            return sql;
+        }
+        List<String> words = new ArrayList<>();
+        int end = 0;
+        int depth = 0;
+        boolean terminated = false;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? sql.length() : eol;
+            } else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? sql.length() : close + 2;
+            } else if (c == ';' || Character.isWhitespace(c)) {
+                terminated |= c == ';';
+                i++;
+            } else if (terminated) {
+                // multiple statements
+                return sql;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                int close = sql.indexOf(c, i + 1);
+                if (close < 0) {
+                    return sql;
+                }
+                i = close + 1;
+                end = i;
+            } else if (c == '$') {
+                // dollar quoted strings are not supported
+                return sql;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+                    i++;
+                }
+                if (depth == 0) {
+                    words.add(sql.substring(start, i).toUpperCase(Locale.ROOT));
+                }
+                end = i;
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                i++;
+                end = i;
+            }
+        }
+        if (depth != 0 || words.isEmpty() || !(words.get(0).equals("SELECT") || words.get(0).equals("WITH"))
+                || words.contains("LIMIT") || words.contains("FETCH") || words.contains("OFFSET")
+                || words.contains("TOP") || words.contains("FOR") || words.contains("INTO")) {
+            return sql;
+        }
+        return sql.substring(0, end) + String.format(clause, maxRows);
+    }
+
+    /**
+     * Rewrites a query counting all rows of a table to a query reading the row count from the
+     * statistics of the target (based on product). The rows are counted, if no statistics
+     * are available (e.g. not yet analyzed tables, views). Returns the sql unchanged,
+     * if it is not a plain count of a table or the product is not supported.
+     * For SQLite, the caller must ensure that the table sqlite_stat1 exists.
+     */
+    public String approximateRowCount(String sql, String product) {
+        final Matcher m = COUNT_ROWS.matcher(sql);
+        if (!m.find()) {
+            return sql;
+        }
+        String alias = m.group(1);
+        String schema = m.group(2);
+        String table = m.group(3);
+        String from = (schema == null ? "" : schema + ".") + table;
+        if ("PostgreSQL".equals(product)) {
+            // to_regclass resolves the name like the original statement
+            return "SELECT coalesce((SELECT CAST(reltuples AS BIGINT)\n" +
+                    "                   FROM pg_class\n" +
+                    "                  WHERE oid = to_regclass(" + literal(from) + ")\n" +
+                    "                    AND relkind IN ('r', 'm')\n" +
+                    "                    AND reltuples >= 0),\n" +
+                    "                (SELECT count(*) FROM " + from + ")) AS " + (alias == null ? "count" : alias);
+        } else if ("Snowflake".equals(product)) {
+            return "SELECT coalesce((SELECT row_count\n" +
+                    "                   FROM information_schema.tables\n" +
+                    "                  WHERE table_schema = " + (schema == null ? "current_schema()" : literal(name(schema, true))) + "\n" +
+                    "                    AND table_name = " + literal(name(table, true)) + "),\n" +
+                    "                (SELECT COUNT(*) FROM " + from + ")) AS " + (alias == null ? "\"COUNT(*)\"" : alias);
+        } else if ("SQLite".equals(product) && schema == null) {
+            // the first number of stat is the number of rows of the table
+            return "SELECT coalesce((SELECT CAST(stat AS INTEGER)\n" +
+                    "                   FROM sqlite_stat1\n" +
+                    "                  WHERE tbl = " + literal(name(table, false)) + "\n" +
+                    "                  LIMIT 1),\n" +
+                    "                (SELECT COUNT(*) FROM " + from + ")) AS " + (alias == null ? "\"COUNT(*)\"" : alias);
+        }
+        return sql;
+    }
+
+    private static String name(String identifier, boolean upperCase) {
+        char first = identifier.charAt(0);
+        if (first == '"' || first == '`') {
+            return identifier.substring(1, identifier.length() - 1);
+        }
+        return upperCase ? identifier.toUpperCase(Locale.ROOT) : identifier;
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
     private String rewrite(List<Method> methods, String sql, String product) {
         String result = sql;
         for (Method method : methods) {
-            try {
-                result = (String) method.invoke(rewriter, result, product);
-            } catch (IllegalAccessException | InvocationTargetException e ) {
-                throw new RuntimeException("Cannot rewrite SQL statement for " + product + ".");
-            }
+            result = invoke(method, result, product);
         }
         return result;
     }
 
+    private String invoke(Method method, String sql, String product) {
+        try {
+            return (String) method.invoke(rewriter, sql, product);
+        } catch (IllegalAccessException | InvocationTargetException e ) {
+            throw new RuntimeException("Cannot rewrite SQL statement for " + product + ".");
+        }
+    }
+
+    static {
+        ROW_LIMIT_CLAUSES.put("PostgreSQL", " LIMIT %d");
+        ROW_LIMIT_CLAUSES.put("Snowflake", " LIMIT %d");
+        ROW_LIMIT_CLAUSES.put("SQLite", " LIMIT %d");
+        ROW_LIMIT_CLAUSES.put("H2", " FETCH FIRST %d ROWS ONLY");
+    }
 }
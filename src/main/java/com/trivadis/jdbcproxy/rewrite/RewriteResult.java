@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy.rewrite;
+
+/**
+ * Result of a rewrite. Contains the original SQL, the rewritten SQL and
+ * the name of the full rewrite rule that matched (null, if none matched).
+ */
+public class RewriteResult {
+    private final String originalSql;
+    private final String sql;
+    private final String rule;
+
+    public RewriteResult(String originalSql, String sql, String rule) {
+        this.originalSql = originalSql;
+        this.sql = sql;
+        this.rule = rule;
+    }
+
+    public String getOriginalSql() {
+        return originalSql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * Statements matched by a full rewrite are issued by the SQL Developer navigator
+     * and read dictionary data only.
+     */
+    public boolean isNavigatorQuery() {
+        return rule != null;
+    }
+}
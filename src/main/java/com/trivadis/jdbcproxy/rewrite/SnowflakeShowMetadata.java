@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy.rewrite;
+
+import java.util.List;
+
+/**
+ * Answers navigator queries on Snowflake with SHOW commands instead of information_schema views.
+ * SHOW commands are served by the cloud services layer without a running warehouse. Their result
+ * is reshaped to the columns expected by SQL Developer via a projection on RESULT_SCAN.
+ * The names are taken from the bind values of the navigator query and are passed as quoted
+ * identifiers, SHOW commands do not accept bind variables. Columns are read via DESCRIBE,
+ * which reports them in definition order.
+ */
+public class SnowflakeShowMetadata {
+    private final static String INFORMATION_SCHEMA = "INFORMATION_SCHEMA";
+
+    private SnowflakeShowMetadata() {
+        super();
+    }
+
+    /**
+     * Returns the SHOW or DESCRIBE command for the passed rule and bind values, null if the rule is
+     * not supported or the bind values are not names (the information_schema query is used).
+     *
+     * @param rule  the full rewrite rule matched by the navigator query
+     * @param binds the bind values of the navigator query
+     */
+    public static String show(String rule, List<Object> binds) {
+        if ("showSchemas".equals(rule)) {
+            return "SHOW TERSE SCHEMAS";
+        }
+        // the views of information_schema are not listed by SHOW commands
+        if ("showTables".equals(rule)) {
+            String schema = name(binds, 1);
+            return schema == null ? null : "SHOW TERSE TABLES IN SCHEMA " + identifier(schema);
+        } else if ("showViews".equals(rule)) {
+            String schema = name(binds, 1);
+            return schema == null ? null : "SHOW TERSE VIEWS IN SCHEMA " + identifier(schema);
+        } else if ("showViewColumnsShort".equals(rule)) {
+            return describe("VIEW", name(binds, 1), name(binds, 2));
+        } else if ("showTableColumns".equals(rule)) {
+            return describe("TABLE", name(binds, 5), name(binds, 4));
+        } else if ("showViewColumns".equals(rule)) {
+            return describe("VIEW", name(binds, 5), name(binds, 4));
+        } else if ("showViewDetails".equals(rule)) {
+            String schema = name(binds, 5);
+            String view = name(binds, 4);
+            return schema == null || view == null ? null
+                    : "SHOW VIEWS LIKE " + literal(view) + " IN SCHEMA " + identifier(schema);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the passed command is a DESCRIBE command. The names of its result must
+     * be passed to projection() in the order of the rows.
+     */
+    public static boolean isDescribe(String command) {
+        return command.startsWith("DESCRIBE ");
+    }
+
+    /**
+     * Returns the query reshaping the result of the SHOW command to the result of the navigator query.
+     *
+     * @param rule    the full rewrite rule matched by the navigator query
+     * @param binds   the bind values of the navigator query
+     * @param queryId the query id of the SHOW command
+     * @param columns the column names in the order of the DESCRIBE result, ignored for SHOW commands
+     */
+    public static String projection(String rule, List<Object> binds, String queryId, List<String> columns) {
+        String from = "  FROM TABLE(RESULT_SCAN(" + literal(queryId) + "))\n";
+        if ("showSchemas".equals(rule)) {
+            return "SELECT \"name\" AS \"SCHEMA_NAME\"\n" +
+                    from +
+                    " ORDER BY \"name\"";
+        } else if ("showTables".equals(rule) || "showViews".equals(rule)) {
+            return "SELECT \"name\" AS \"TABLE_NAME\"\n" +
+                    from +
+                    " ORDER BY \"name\"";
+        } else if ("showViewColumnsShort".equals(rule)) {
+            return "SELECT \"name\" AS \"COLUMN_NAME\"\n" +
+                    from +
+                    " ORDER BY " + position(columns);
+        } else if ("showTableColumns".equals(rule) || "showViewColumns".equals(rule)) {
+            // type is e.g. NUMBER(38,0), VARCHAR(16777216) or TIMESTAMP_NTZ(9), information_schema reports
+            // VARCHAR as TEXT and the precision and scale of NUMBER only; the order of the rows of
+            // RESULT_SCAN is not guaranteed, the position is taken from the DESCRIBE result
+            return "SELECT column_name,\n" +
+                    "       ordinal_position,\n" +
+                    "       column_default,\n" +
+                    "       is_nullable,\n" +
+                    "       decode(t, 'VARCHAR', 'TEXT', t) AS data_type,\n" +
+                    "       iff(t = 'NUMBER', regexp_substr(type_name, '[(]([0-9]+)', 1, 1, 'e')::number, NULL)\n" +
+                    "          AS numeric_precision,\n" +
+                    "       iff(t = 'NUMBER', regexp_substr(type_name, ',([0-9]+)[)]', 1, 1, 'e')::number, NULL)\n" +
+                    "          AS numeric_scale,\n" +
+                    "       column_comment\n" +
+                    "  FROM (\n" +
+                    "          SELECT \"name\" AS column_name,\n" +
+                    "                 " + position(columns) + " AS ordinal_position,\n" +
+                    "                 \"default\" AS column_default,\n" +
+                    "                 iff(\"null?\" = 'Y', 'YES', 'NO') AS is_nullable,\n" +
+                    "                 \"type\" AS type_name,\n" +
+                    "                 regexp_substr(\"type\", '^[A-Z_0-9]+') AS t,\n" +
+                    "                 \"comment\" AS column_comment\n" +
+                    "  " + from +
+                    "       )\n" +
+                    " ORDER BY ordinal_position";
+        } else if ("showViewDetails".equals(rule)) {
+            // LIKE is case-insensitive, last_altered is not available
+            return "SELECT \"text\" AS view_definition,\n" +
+                    "       'NONE' AS check_option,\n" +
+                    "       'NO' AS is_updatable,\n" +
+                    "       'NO' AS insertable_into,\n" +
+                    "       iff(\"is_secure\" = 'true', 'YES', 'NO') AS is_secure,\n" +
+                    "       \"created_on\" AS created,\n" +
+                    "       NULL AS last_altered,\n" +
+                    "       nullif(\"comment\", '') AS comment\n" +
+                    from +
+                    " WHERE \"name\" = " + literal(name(binds, 4));
+        }
+        throw new IllegalArgumentException("No SHOW command for rule " + rule + ".");
+    }
+
+    private static String describe(String kind, String schema, String table) {
+        if (schema == null || table == null) {
+            return null;
+        }
+        return "DESCRIBE " + kind + " " + identifier(schema) + "." + identifier(table);
+    }
+
+    /**
+     * Returns the expression numbering the rows of a DESCRIBE result in the order of the passed names.
+     */
+    private static String position(List<String> columns) {
+        StringBuilder sb = new StringBuilder("array_position(\"name\"::variant, array_construct(");
+        for (int i = 0; i < columns.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(literal(columns.get(i)));
+        }
+        return sb.append(")) + 1").toString();
+    }
+
+    /**
+     * Returns the bind value at the passed (1-based) position, null if it is not a name
+     * or if it is information_schema.
+     */
+    private static String name(List<Object> binds, int position) {
+        if (binds.size() < position || !(binds.get(position - 1) instanceof String)) {
+            return null;
+        }
+        String name = (String) binds.get(position - 1);
+        return name.isEmpty() || INFORMATION_SCHEMA.equals(name) ? null : name;
+    }
+
+    private static String identifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class ApproximateRowCountTests {
+
+    private long count(Connection conn, String sql) throws SQLException {
+        ResultSet rs = conn.prepareStatement(sql).executeQuery();
+        rs.next();
+        long count = rs.getLong(1);
+        rs.close();
+        return count;
+    }
+
+    @Test
+    public void sqlite_statistics() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:?proxy.rowCount=approximate");
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("CREATE TABLE t (id INTEGER PRIMARY KEY, grp INTEGER)");
+        stmt.executeUpdate("CREATE INDEX t_grp ON t (grp)");
+        stmt.executeUpdate("WITH RECURSIVE r(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM r WHERE x < 100) "
+                + "INSERT INTO t SELECT x, x % 10 FROM r");
+        // no statistics, rows are counted
+        Assertions.assertEquals(100, count(conn, "SELECT COUNT(*) FROM t"));
+        stmt.executeUpdate("ANALYZE");
+        stmt.executeUpdate("INSERT INTO t VALUES (101, 1)");
+        Assertions.assertEquals(100, count(conn, "select count(*) from \"t\";"));
+        // exact count
+        Assertions.assertEquals(101, count(conn, "SELECT COUNT(*) FROM t WHERE 1 = 1"));
+        ResultSet rs = conn.getMetaData().getIndexInfo(null, null, "t", false, false);
+        boolean found = false;
+        while (rs.next()) {
+            if ("t_grp".equals(rs.getString("INDEX_NAME"))) {
+                Assertions.assertEquals(10, rs.getLong("CARDINALITY"));
+                found = true;
+            }
+        }
+        Assertions.assertTrue(found);
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void exact_by_default() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("CREATE TABLE t (id INTEGER PRIMARY KEY)");
+        stmt.executeUpdate("INSERT INTO t VALUES (1), (2)");
+        stmt.executeUpdate("ANALYZE");
+        stmt.executeUpdate("INSERT INTO t VALUES (3)");
+        Assertions.assertEquals(3, count(conn, "SELECT COUNT(*) FROM t"));
+        stmt.close();
+        conn.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class CachedResultTests {
+
+    private CachedResult query(String sql) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+        CachedResult result = CachedResult.of(conn.createStatement().executeQuery(sql));
+        conn.close();
+        return result;
+    }
+
+    @Test
+    public void replay_typed_values() throws SQLException {
+        CachedResult result = query("SELECT 'main' AS schema_name, 1 AS pos, 2.5 AS val, NULL AS remarks\n" +
+                "UNION ALL\n" +
+                "SELECT 'main', 2, NULL, 'x'");
+        ResultSet rs = result.newResultSet(null);
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals("main", rs.getString("SCHEMA_NAME"));
+        Assertions.assertEquals(1, rs.getInt("pos"));
+        Assertions.assertEquals(1, rs.getObject("pos"));
+        Assertions.assertEquals("1", rs.getString("pos"));
+        Assertions.assertEquals(2.5, rs.getDouble("val"));
+        Assertions.assertNull(rs.getString("remarks"));
+        Assertions.assertTrue(rs.wasNull());
+        String schema = rs.getString(1);
+        Assertions.assertTrue(rs.next());
+        Assertions.assertSame(schema, rs.getString(1));
+        Assertions.assertEquals(0.0, rs.getDouble("val"));
+        Assertions.assertTrue(rs.wasNull());
+        Assertions.assertEquals("x", rs.getString("remarks"));
+        Assertions.assertFalse(rs.next());
+        Assertions.assertTrue(rs.previous());
+        Assertions.assertEquals(2, rs.getLong(2));
+    }
+
+    @Test
+    public void replay_is_independent() throws SQLException {
+        CachedResult result = query("SELECT 1 AS c UNION ALL SELECT 2");
+        ResultSet rs1 = result.newResultSet(null);
+        ResultSet rs2 = result.newResultSet(null);
+        Assertions.assertTrue(rs1.next());
+        Assertions.assertTrue(rs1.next());
+        Assertions.assertTrue(rs2.next());
+        Assertions.assertEquals(2, rs1.getInt(1));
+        Assertions.assertEquals(1, rs2.getInt(1));
+        Assertions.assertEquals(2, result.getRowCount());
+    }
+
+    @Test
+    public void replay_mixed_values_after_nulls() throws SQLException {
+        CachedResult result = query("WITH RECURSIVE r(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM r WHERE n < 40)\n" +
+                "SELECT CASE WHEN n <= 2 THEN NULL WHEN n = 40 THEN 'last' ELSE n END AS c FROM r");
+        ResultSet rs = result.newResultSet(null);
+        Assertions.assertTrue(rs.next());
+        Assertions.assertNull(rs.getObject(1));
+        Assertions.assertTrue(rs.absolute(3));
+        Assertions.assertEquals(3, rs.getInt(1));
+        Assertions.assertTrue(rs.absolute(39));
+        Assertions.assertEquals(39, rs.getObject(1));
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals("last", rs.getString(1));
+        Assertions.assertFalse(rs.next());
+        Assertions.assertEquals(40, result.getRowCount());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+public class ConvertingResultSetTests {
+
+    @Test
+    public void h2_array_json_uuid_as_text() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:convert_test", "sa", "sa");
+        ResultSet rs = conn.prepareStatement("SELECT ARRAY[1, 2] AS a, JSON '{\"k\":1}' AS j, " +
+                "CAST('123e4567-e89b-12d3-a456-426614174000' AS UUID) AS u, 42 AS n").executeQuery();
+        ResultSetMetaData metaData = rs.getMetaData();
+        Assertions.assertEquals(Types.LONGVARCHAR, metaData.getColumnType(1));
+        Assertions.assertEquals("TEXT", metaData.getColumnTypeName(2));
+        Assertions.assertEquals(String.class.getName(), metaData.getColumnClassName(3));
+        Assertions.assertEquals(Types.INTEGER, metaData.getColumnType(4));
+        Assertions.assertTrue(rs.next());
+        Assertions.assertTrue(rs.getObject(1) instanceof String);
+        Assertions.assertEquals("{\"k\":1}", rs.getObject("J"));
+        Assertions.assertEquals("123e4567-e89b-12d3-a456-426614174000", rs.getObject(3));
+        Assertions.assertEquals(42, rs.getObject(4));
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void sqlite_dynamic_types() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+        conn.prepareStatement("CREATE TABLE t (c TEXT)").execute();
+        conn.prepareStatement("INSERT INTO t VALUES (1), ('one')").execute();
+        ResultSet rs = conn.prepareStatement("SELECT c FROM t").executeQuery();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals("1", rs.getObject(1));
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals("one", rs.getObject(1));
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void converted_via_execute() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:convert_execute_test", "sa", "sa");
+        Statement stmt = conn.createStatement();
+        Assertions.assertTrue(stmt.execute("SELECT ARRAY[1, 2] AS a"));
+        ResultSet rs = stmt.getResultSet();
+        Assertions.assertSame(rs, stmt.getResultSet());
+        Assertions.assertTrue(rs.next());
+        Assertions.assertTrue(rs.getObject(1) instanceof String);
+        Assertions.assertFalse(stmt.getMoreResults());
+        Assertions.assertEquals(-1, stmt.getUpdateCount());
+        // a statement which is not a query, the result set of the target is converted
+        Assertions.assertTrue(stmt.execute("CALL ARRAY[1, 2]"));
+        rs = stmt.getResultSet();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertTrue(rs.getObject(1) instanceof String);
+        Assertions.assertFalse(stmt.getMoreResults());
+        Assertions.assertTrue(rs.isClosed());
+        stmt.close();
+        conn.close();
+    }
+}
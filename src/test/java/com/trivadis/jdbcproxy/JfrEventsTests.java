@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.metrics.SqlFingerprint;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class JfrEventsTests {
+
+    @Test
+    public void fingerprint_ignores_literals_and_formatting() {
+        Assertions.assertEquals("select * from t where id = ? and name = ?",
+                SqlFingerprint.normalize("SELECT *\n  FROM t -- comment\n WHERE id = 42 AND name = 'it''s';"));
+        Assertions.assertEquals(SqlFingerprint.of("select a from t where b = 1"),
+                SqlFingerprint.of("SELECT a FROM t WHERE b = 2"));
+        Assertions.assertNotEquals(SqlFingerprint.of("select a from t"), SqlFingerprint.of("select b from t"));
+        Assertions.assertEquals("select \"A\" from t", SqlFingerprint.normalize("select \"A\" from T"));
+    }
+
+    @Test
+    public void events_are_recorded() throws Exception {
+        Path file = Files.createTempFile("jdbc-proxy", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.trivadis.jdbcproxy.Connect");
+            recording.enable("com.trivadis.jdbcproxy.Rewrite");
+            recording.enable("com.trivadis.jdbcproxy.Prepare");
+            recording.enable("com.trivadis.jdbcproxy.Execute");
+            recording.enable("com.trivadis.jdbcproxy.Metadata");
+            recording.start();
+            try (Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:jfr_test;PASSWORD=sa", "sa", null)) {
+                PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 5) WHERE x > 2");
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    // consume
+                }
+                stmt.close();
+                conn.getMetaData().getTables(null, null, "%", null).close();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        List<String> names = events.stream().map(e -> e.getEventType().getName()).collect(Collectors.toList());
+        Assertions.assertTrue(names.contains("com.trivadis.jdbcproxy.Connect"));
+        Assertions.assertTrue(names.contains("com.trivadis.jdbcproxy.Rewrite"));
+        Assertions.assertTrue(names.contains("com.trivadis.jdbcproxy.Metadata"));
+        RecordedEvent connect = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.trivadis.jdbcproxy.Connect")).findFirst().get();
+        Assertions.assertEquals("jdbc:h2:mem:jfr_test", connect.getString("targetUrl"));
+        RecordedEvent execute = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.trivadis.jdbcproxy.Execute")).findFirst().get();
+        Assertions.assertEquals("select x from system_range(?, ?) where x > ?", execute.getString("sql"));
+        Assertions.assertEquals(SqlFingerprint.of("SELECT x FROM system_range(1, 5) WHERE x > 2"), execute.getString("fingerprint"));
+        RecordedEvent prepare = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.trivadis.jdbcproxy.Prepare")).findFirst().get();
+        Assertions.assertEquals(execute.getString("fingerprint"), prepare.getString("fingerprint"));
+    }
+}
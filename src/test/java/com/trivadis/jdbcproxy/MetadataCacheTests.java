@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResultSet;
+import com.trivadis.jdbcproxy.cache.MetadataStore;
+import com.trivadis.jdbcproxy.cache.SchemaChangeDetector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetadataCacheTests {
+    private final static String SHOW_TABLES = "select TABLE_NAME from information_schema.Tables where cast(TABLE_SCHEMA as binary) = ?  \n" +
+            "\t\t\t\t\t\t\t\tand (TABLE_TYPE = 'BASE TABLE' OR table_schema='information_schema')\n" +
+            "                        ";
+
+    private List<String> showTables(Connection conn, String schema) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(SHOW_TABLES);
+        stmt.setString(1, schema);
+        ResultSet rs = stmt.executeQuery();
+        Assertions.assertTrue(rs instanceof CachedResultSet);
+        List<String> tables = new ArrayList<>();
+        while (rs.next()) {
+            tables.add(rs.getString("TABLE_NAME"));
+        }
+        rs.close();
+        stmt.close();
+        return tables;
+    }
+
+    @Nested
+    @DisplayName("when using SQLite via proxy")
+    class SQLiteWithProxy {
+        @Test
+        void refetch_after_ddl() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+            conn.prepareStatement("CREATE TABLE t1 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[t1]", showTables(conn, "main").toString());
+            Assertions.assertEquals("[t1]", showTables(conn, "main").toString());
+            conn.prepareStatement("CREATE TABLE t2 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[t1, t2]", showTables(conn, "main").toString());
+            conn.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("when using H2 via proxy")
+    class H2WithProxy {
+        @Test
+        void refetch_changed_schema_only() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:cache_test", "sa", "sa");
+            conn.prepareStatement("CREATE SCHEMA s1").execute();
+            conn.prepareStatement("CREATE SCHEMA s2").execute();
+            conn.prepareStatement("CREATE TABLE s1.t1 (c1 INTEGER)").execute();
+            conn.prepareStatement("CREATE TABLE s2.t1 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[T1]", showTables(conn, "S1").toString());
+            Assertions.assertEquals("[T1]", showTables(conn, "S2").toString());
+            conn.prepareStatement("CREATE TABLE s2.t2 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[T1]", showTables(conn, "S1").toString());
+            Assertions.assertEquals("[T1, T2]", showTables(conn, "S2").toString());
+            conn.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("when autocommit is off")
+    class WithoutAutoCommit {
+        private boolean isCached(Connection conn) throws SQLException {
+            try (PreparedStatement stmt = conn.prepareStatement(SHOW_TABLES)) {
+                stmt.setString(1, "PUBLIC");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs instanceof CachedResultSet;
+                }
+            }
+        }
+
+        @Test
+        void cache_outside_of_open_transaction() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:autocommit_test", "sa", "sa");
+            conn.setAutoCommit(false);
+            conn.prepareStatement("CREATE TABLE t1 (c1 INTEGER)").execute();
+            conn.commit();
+            Assertions.assertTrue(isCached(conn));
+            conn.prepareStatement("INSERT INTO t1 VALUES (1)").execute();
+            Assertions.assertFalse(isCached(conn));
+            conn.rollback();
+            Assertions.assertTrue(isCached(conn));
+            conn.prepareStatement("INSERT INTO t1 VALUES (1)").execute();
+            conn.setAutoCommit(true);
+            Assertions.assertTrue(isCached(conn));
+            conn.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("when detecting schema changes in H2")
+    class H2SchemaChanges {
+        private String marker(SchemaChangeDetector detector) throws SQLException {
+            detector.recheck();
+            return detector.getMarkers().get("PUBLIC");
+        }
+
+        @Test
+        void marker_ignores_dml() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:h2:mem:marker_dml_test", "sa", "sa");
+            SchemaChangeDetector detector = SchemaChangeDetector.forProduct(() -> conn, "H2");
+            conn.createStatement().execute("CREATE TABLE t1 (c1 INTEGER)");
+            String marker = marker(detector);
+            conn.createStatement().execute("INSERT INTO t1 VALUES (1)");
+            Assertions.assertEquals(marker, marker(detector));
+            conn.close();
+        }
+
+        @Test
+        void marker_changes_on_ddl() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:h2:mem:marker_ddl_test", "sa", "sa");
+            SchemaChangeDetector detector = SchemaChangeDetector.forProduct(() -> conn, "H2");
+            conn.createStatement().execute("CREATE TABLE t1 (c1 INTEGER, c2 INTEGER)");
+            String marker = marker(detector);
+            conn.createStatement().execute("ALTER TABLE t1 ALTER COLUMN c2 RENAME TO c3");
+            Assertions.assertNotEquals(marker, marker(detector));
+            marker = marker(detector);
+            conn.createStatement().execute("ALTER TABLE t1 ADD CONSTRAINT t1_ck CHECK (c1 > 0)");
+            Assertions.assertNotEquals(marker, marker(detector));
+            conn.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("when detecting schema changes in PostgreSQL")
+    class PostgreSQLSchemaChanges {
+        private String marker(SchemaChangeDetector detector) throws SQLException {
+            detector.recheck();
+            return detector.getMarkers().get("marker_test");
+        }
+
+        @Test
+        void marker_changes_on_column_ddl() throws SQLException {
+            Connection conn = DriverManager.getConnection("jdbc:postgresql://localhost:5432/postgres", "postgres", "postgres");
+            SchemaChangeDetector detector = SchemaChangeDetector.forProduct(() -> conn, "PostgreSQL");
+            conn.createStatement().execute("DROP SCHEMA IF EXISTS marker_test CASCADE");
+            conn.createStatement().execute("CREATE SCHEMA marker_test");
+            conn.createStatement().execute("CREATE TABLE marker_test.t1 (c1 INTEGER, c2 INTEGER)");
+            String marker = marker(detector);
+            conn.createStatement().execute("INSERT INTO marker_test.t1 VALUES (1, 2)");
+            Assertions.assertEquals(marker, marker(detector));
+            conn.createStatement().execute("ALTER TABLE marker_test.t1 RENAME COLUMN c2 TO c3");
+            Assertions.assertNotEquals(marker, marker(detector));
+            marker = marker(detector);
+            conn.createStatement().execute("ALTER TABLE marker_test.t1 ALTER COLUMN c3 SET DEFAULT 42");
+            Assertions.assertNotEquals(marker, marker(detector));
+            marker = marker(detector);
+            conn.createStatement().execute("COMMENT ON COLUMN marker_test.t1.c3 IS 'answer'");
+            Assertions.assertNotEquals(marker, marker(detector));
+            conn.createStatement().execute("DROP SCHEMA marker_test CASCADE");
+            conn.close();
+        }
+    }
+
+    @Nested
+    @DisplayName("when using several connections to the same target")
+    class SharedAcrossConnections {
+        @Test
+        void one_copy_per_target() throws SQLException {
+            Connection conn1 = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:shared_test", "sa", "sa");
+            Connection conn2 = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:shared_test", "sa", "sa");
+            conn1.prepareStatement("CREATE TABLE t1 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[T1]", showTables(conn1, "PUBLIC").toString());
+            int count = MetadataStore.getInstance().getEntryCount();
+            Assertions.assertEquals("[T1]", showTables(conn2, "PUBLIC").toString());
+            Assertions.assertEquals(count, MetadataStore.getInstance().getEntryCount());
+            conn2.close();
+            conn1.close();
+        }
+
+        @Test
+        void private_in_memory_databases_are_not_shared() throws SQLException {
+            Connection conn1 = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+            Connection conn2 = DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+            conn1.prepareStatement("CREATE TABLE t1 (c1 INTEGER)").execute();
+            Assertions.assertEquals("[t1]", showTables(conn1, "main").toString());
+            Assertions.assertEquals("[]", showTables(conn2, "main").toString());
+            conn2.close();
+            conn1.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.metrics.BurstSnapshot;
+import com.trivadis.jdbcproxy.metrics.LatencyHistogram;
+import com.trivadis.jdbcproxy.metrics.MetricsRegistry;
+import com.trivadis.jdbcproxy.metrics.SqlFingerprint;
+import com.trivadis.jdbcproxy.metrics.StatementSketch;
+import com.trivadis.jdbcproxy.metrics.StatementSnapshot;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class MetricsTests {
+
+    @Test
+    public void histogram_percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1_000_000L, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        Assertions.assertTrue(p50 >= 500_000L && p50 <= 500_000L * 5 / 4, "p50 " + p50);
+        long p99 = histogram.getPercentile(99);
+        Assertions.assertTrue(p99 >= 990_000L && p99 <= 1_000_000L, "p99 " + p99);
+        Assertions.assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+
+    @Test
+    public void connection_metrics_via_jmx() throws Exception {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:metrics_test", "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 5)");
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) {
+            // consume
+        }
+        MetricsRegistry.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        CompositeData[] connections = (CompositeData[]) server.getAttribute(new ObjectName(MetricsRegistry.OBJECT_NAME), "Connections");
+        CompositeData metrics = null;
+        for (CompositeData c : connections) {
+            if (((String) c.get("name")).startsWith("jdbc:h2:mem:metrics_test #")) {
+                metrics = c;
+            }
+        }
+        Assertions.assertNotNull(metrics);
+        Assertions.assertEquals(1L, metrics.get("connects"));
+        Assertions.assertEquals(1L, metrics.get("prepares"));
+        Assertions.assertEquals(1L, metrics.get("executes"));
+        Assertions.assertEquals(5L, metrics.get("rowsFetched"));
+        Assertions.assertEquals(1L, metrics.get("openStatements"));
+        Assertions.assertEquals(1L, metrics.get("openResultSets"));
+        stmt.close();
+        Assertions.assertEquals(0L, MetricsRegistry.getInstance().getTargets().stream()
+                .filter(t -> t.getName().equals("jdbc:h2:mem:metrics_test")).findFirst().get().getOpenResultSets());
+        conn.close();
+        Assertions.assertTrue(MetricsRegistry.getInstance().getConnections().stream()
+                .noneMatch(c -> c.getName().startsWith("jdbc:h2:mem:metrics_test #")));
+    }
+
+    @Test
+    public void round_trips_grouped_into_bursts() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:bursts_test?proxy.burstGap=200", "sa", "sa")) {
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 2)")) {
+                    stmt.executeQuery().close();
+                }
+            }
+            Thread.sleep(500);
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 2)")) {
+                stmt.executeQuery().close();
+            }
+            conn.getMetaData().getTables(null, null, "%", null).close();
+            List<BurstSnapshot> bursts = MetricsRegistry.getInstance().getBursts().stream()
+                    .filter(b -> b.getConnection().startsWith("jdbc:h2:mem:bursts_test #")).collect(Collectors.toList());
+            Assertions.assertEquals(2, bursts.size());
+            Assertions.assertEquals(3, bursts.get(0).getPrepares());
+            Assertions.assertEquals(3, bursts.get(0).getExecutes());
+            Assertions.assertEquals(0, bursts.get(0).getMetadataCalls());
+            Assertions.assertEquals(1, bursts.get(1).getPrepares());
+            Assertions.assertEquals(1, bursts.get(1).getExecutes());
+            Assertions.assertEquals(1, bursts.get(1).getMetadataCalls());
+            Assertions.assertTrue(bursts.get(0).getWallMillis() >= bursts.get(0).getBusyMillis());
+            MetricsRegistry.register();
+            CompositeData[] published = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(new ObjectName(MetricsRegistry.OBJECT_NAME), "Bursts");
+            Assertions.assertTrue(Arrays.stream(published).anyMatch(b -> ((String) b.get("connection"))
+                    .startsWith("jdbc:h2:mem:bursts_test #") && ((Long) b.get("roundTrips")) == 6L));
+        }
+    }
+
+    @Test
+    public void sketch_keeps_most_frequent_statements() {
+        StatementSketch sketch = new StatementSketch(4, 256, 3);
+        for (int i = 0; i < 100; i++) {
+            sketch.record("SELECT a FROM t WHERE id = " + i, 1_000_000L, false);
+            if (i % 2 == 0) {
+                sketch.record("SELECT b FROM t", 1_000_000L, i % 4 == 0);
+            }
+            if (i % 10 == 0) {
+                sketch.record("SELECT c FROM t", 1_000_000L, false);
+            }
+            sketch.record("SELECT d" + i + " FROM t", 1_000_000L, false);
+        }
+        List<StatementSnapshot> top = sketch.getTop();
+        Assertions.assertEquals(3, top.size());
+        Assertions.assertEquals("select a from t where id = ?", top.get(0).getSql());
+        Assertions.assertEquals(100, top.get(0).getCount());
+        Assertions.assertEquals(100.0, top.get(0).getTotalMillis(), 0.001);
+        Assertions.assertEquals("select b from t", top.get(1).getSql());
+        Assertions.assertEquals(50, top.get(1).getCount());
+        Assertions.assertEquals(25, top.get(1).getFailures());
+        Assertions.assertEquals(SqlFingerprint.of("select b from t"), top.get(1).getFingerprint());
+    }
+
+    @Test
+    public void unmatched_statements() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:unmatched_test?proxy.unmatchedStatements=true", "sa", "sa")) {
+            for (int i = 0; i < 5; i++) {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT x AS unmatched_test FROM system_range(1, " + i + ")")) {
+                    stmt.executeQuery().close();
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                Assertions.assertThrows(SQLException.class, () -> stmt.executeQuery("SELECT * FROM unmatched_test_missing"));
+            }
+        }
+        List<StatementSnapshot> statements = MetricsRegistry.getInstance().getUnmatchedStatements();
+        StatementSnapshot query = statements.stream()
+                .filter(s -> s.getSql().equals("select x as unmatched_test from system_range(?, ?)")).findFirst().get();
+        Assertions.assertEquals(5, query.getCount());
+        StatementSnapshot failed = statements.stream()
+                .filter(s -> s.getSql().equals("select * from unmatched_test_missing")).findFirst().get();
+        Assertions.assertEquals(1, failed.getFailures());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.rewrite.RewriteHelper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class NavigatorPrefetcherTests {
+    private final static String SHOW_TABLE_CONSTRAINTS = "SELECT CONSTRAINT_NAME, CONSTRAINT_TYPE FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS\n" +
+            "\t    \t\tWHERE TABLE_NAME = ? AND cast(TABLE_SCHEMA as binary) = ?";
+    private final static String SHOW_CHECK_CONSTRAINTS = "SELECT t.table_schema, \n" +
+            "  t.table_name, \n" +
+            "  t.constraint_name, \n" +
+            "  t.constraint_type, \n" +
+            "  t.is_deferrable, \n" +
+            "  t.initially_deferred, \n" +
+            "  c.check_clause \n" +
+            "FROM information_schema.check_constraints c, \n" +
+            "  information_schema.table_constraints t \n" +
+            "WHERE t.table_schema    = ? \n" +
+            "AND t.table_name        = ? \n" +
+            "AND t.constraint_type   = 'CHECK' \n" +
+            "AND c.constraint_name   = t.constraint_name \n" +
+            "AND c.constraint_schema = t.constraint_schema";
+
+    private void query(Connection conn, String sql, String... binds) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        for (int i = 0; i < binds.length; i++) {
+            stmt.setString(i + 1, binds[i]);
+        }
+        stmt.executeQuery().close();
+        stmt.close();
+    }
+
+    @Test
+    void prefetch_learned_transition() throws SQLException, InterruptedException {
+        ProxyConnection conn = (ProxyConnection) DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:prefetch_test;DB_CLOSE_DELAY=-1", "sa", "sa");
+        String checkConstraints = new RewriteHelper().rewrite(SHOW_CHECK_CONSTRAINTS, "H2");
+        for (int i = 1; i <= 4; i++) {
+            query(conn, SHOW_TABLE_CONSTRAINTS, "T" + i, "PUBLIC");
+            query(conn, SHOW_CHECK_CONSTRAINTS, "PUBLIC", "T" + i);
+        }
+        query(conn, SHOW_TABLE_CONSTRAINTS, "T5", "PUBLIC");
+        Assertions.assertTrue(conn.getPrefetcher().awaitIdle(5000));
+        Assertions.assertTrue(conn.getMetadataCache().contains(checkConstraints, Arrays.asList("PUBLIC", "T5")));
+        Assertions.assertFalse(conn.getMetadataCache().contains(checkConstraints, Arrays.asList("PUBLIC", "T6")));
+        conn.close();
+    }
+
+    @Test
+    void no_prefetch_for_private_in_memory_database() throws SQLException {
+        ProxyConnection conn = (ProxyConnection) DriverManager.getConnection("jdbc:proxy:jdbc:sqlite::memory:");
+        Assertions.assertNotNull(conn.getMetadataCache());
+        Assertions.assertNull(conn.getPrefetcher());
+        conn.close();
+    }
+}
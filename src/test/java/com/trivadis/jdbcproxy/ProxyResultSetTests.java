@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ProxyResultSetTests {
+    private final static String URL = "jdbc:proxy:jdbc:h2:mem:row_prefetch_test?proxy.rowPrefetch=3";
+
+    @Test
+    public void fetch_all_rows_in_batches() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x, 'row ' || x AS label FROM system_range(1, 10)");
+        ResultSet rs = stmt.executeQuery();
+        Assertions.assertTrue(rs instanceof ProxyResultSet);
+        Assertions.assertSame(stmt, rs.getStatement());
+        List<Long> values = new ArrayList<>();
+        while (rs.next()) {
+            values.add(rs.getLong(1));
+            Assertions.assertEquals("row " + rs.getRow(), rs.getString("LABEL"));
+        }
+        Assertions.assertEquals(10, values.size());
+        Assertions.assertEquals(10L, values.get(9));
+        Assertions.assertTrue(rs.isAfterLast());
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void close_before_end() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        ResultSet rs = conn.prepareStatement("SELECT x FROM system_range(1, 100000)").executeQuery();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals(1, rs.getInt(1));
+        rs.close();
+        Assertions.assertTrue(rs.isClosed());
+        Assertions.assertThrows(SQLException.class, rs::next);
+        conn.close();
+    }
+
+    @Test
+    public void empty_result() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        ResultSet rs = conn.prepareStatement("SELECT x FROM system_range(1, 0)").executeQuery();
+        Assertions.assertFalse(rs.next());
+        Assertions.assertFalse(rs.isAfterLast());
+        rs.close();
+        conn.close();
+    }
+
+    private static long waitingFetchThreads() {
+        return Thread.getAllStackTraces().entrySet().stream()
+                .filter(e -> "jdbc-proxy-row-prefetch".equals(e.getKey().getName()))
+                .filter(e -> Arrays.stream(e.getValue()).anyMatch(f -> ArrayBlockingQueue.class.getName().equals(f.getClassName())))
+                .count();
+    }
+
+    @Test
+    public void statement_closes_result_sets() throws SQLException, InterruptedException {
+        long waiting = waitingFetchThreads();
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:row_prefetch_close_test?proxy.rowPrefetch=10", "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 1000)");
+        List<ResultSet> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ResultSet rs = stmt.executeQuery();
+            Assertions.assertTrue(rs.next());
+            results.add(rs);
+        }
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(results.get(i).isClosed());
+        }
+        stmt.close();
+        Assertions.assertTrue(results.get(4).isClosed());
+        // close does not wait, the fetch threads stop within one offer timeout
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waitingFetchThreads() > waiting && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(waitingFetchThreads() <= waiting);
+        conn.close();
+    }
+
+    @Test
+    public void prefetch_via_execute() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, 10)");
+        Assertions.assertTrue(stmt.execute());
+        ResultSet rs = stmt.getResultSet();
+        Assertions.assertTrue(rs instanceof ProxyResultSet);
+        int rows = 0;
+        while (rs.next()) {
+            rows++;
+        }
+        Assertions.assertEquals(10, rows);
+        Statement call = conn.createStatement();
+        Assertions.assertTrue(call.execute("CALL 42"));
+        Assertions.assertTrue(call.getResultSet() instanceof ProxyResultSet);
+        call.close();
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void close_does_not_wait_for_fetch() throws Exception {
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+        ResultSet rows = conn.createStatement().executeQuery("SELECT x FROM system_range(1, 100)");
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch roundTrip = new CountDownLatch(1);
+        AtomicBoolean targetClosed = new AtomicBoolean(false);
+        // the fetch of the second batch hangs, like a round trip to a slow target
+        ResultSet slow = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if ("next".equals(method.getName()) && rows.getRow() == 3) {
+                        fetching.countDown();
+                        roundTrip.await();
+                    } else if ("close".equals(method.getName())) {
+                        targetClosed.set(true);
+                    }
+                    try {
+                        return method.invoke(rows, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        ResultSet rs = ProxyResultSet.wrap(slow, null, 3);
+        Assertions.assertTrue(rs.next());
+        Assertions.assertTrue(fetching.await(5, TimeUnit.SECONDS));
+        Thread timeout = new Thread(() -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            roundTrip.countDown();
+        });
+        timeout.setDaemon(true);
+        timeout.start();
+        long start = System.nanoTime();
+        rs.close();
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertTrue(rs.isClosed());
+        Assertions.assertFalse(targetClosed.get());
+        roundTrip.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!targetClosed.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(targetClosed.get());
+        conn.close();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ReplicaRoutingTests {
+    private final static String PRIMARY_URL = "jdbc:h2:mem:routing_primary;DB_CLOSE_DELAY=-1";
+    private final static String REPLICA_URL = "jdbc:h2:mem:routing_replica;DB_CLOSE_DELAY=-1";
+    private final static String SHOW_TABLES = "select TABLE_NAME from information_schema.Tables where cast(TABLE_SCHEMA as binary) = ?  \n" +
+            "\t\t\t\t\t\t\t\tand (TABLE_TYPE = 'BASE TABLE' OR table_schema='information_schema')\n" +
+            "                        ";
+    private static Connection primary;
+    private static Connection replica;
+
+    @BeforeAll
+    public static void setup() throws SQLException {
+        primary = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        primary.prepareStatement("CREATE TABLE on_primary (c1 INTEGER)").execute();
+        replica = DriverManager.getConnection("jdbc:proxy:" + REPLICA_URL, "sa", "sa");
+        replica.prepareStatement("CREATE TABLE on_replica (c1 INTEGER)").execute();
+    }
+
+    @AfterAll
+    public static void teardown() throws SQLException {
+        primary.prepareStatement("DROP ALL OBJECTS").execute();
+        replica.prepareStatement("DROP ALL OBJECTS").execute();
+        primary.close();
+        replica.close();
+    }
+
+    private List<String> showTables(Connection conn) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(SHOW_TABLES);
+        stmt.setString(1, "PUBLIC");
+        ResultSet rs = stmt.executeQuery();
+        List<String> tables = new ArrayList<>();
+        while (rs.next()) {
+            tables.add(rs.getString("TABLE_NAME"));
+        }
+        rs.close();
+        stmt.close();
+        return tables;
+    }
+
+    private List<String> getTables(Connection conn) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, "PUBLIC", null, null);
+        List<String> tables = new ArrayList<>();
+        while (rs.next()) {
+            tables.add(rs.getString("TABLE_NAME"));
+        }
+        rs.close();
+        return tables;
+    }
+
+    /**
+     * Returns the connection catalog calls of the passed proxy connection are executed on.
+     */
+    private static Connection readConnection(Connection conn) throws SQLException {
+        Connection[] read = new Connection[1];
+        ((ProxyConnection) conn).readMetaData(md -> {
+            read[0] = md.getConnection();
+            return null;
+        });
+        return read[0];
+    }
+
+    @Test
+    public void navigator_and_metadata_on_replica() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL + "?proxy.replicas=" + REPLICA_URL, "sa", "sa");
+        Assertions.assertEquals("[ON_REPLICA]", showTables(conn).toString());
+        Assertions.assertEquals("[ON_REPLICA]", getTables(conn).toString());
+        Assertions.assertTrue(conn.getMetaData().getURL().contains("routing_primary"));
+        ResultSet rs = conn.prepareStatement("SELECT count(*) FROM on_primary").executeQuery();
+        Assertions.assertTrue(rs.next());
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void transaction_on_primary() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL + "?proxy.replicas=" + REPLICA_URL, "sa", "sa");
+        conn.setAutoCommit(false);
+        Assertions.assertEquals("[ON_REPLICA]", showTables(conn).toString());
+        conn.prepareStatement("INSERT INTO on_primary VALUES (1)").execute();
+        Assertions.assertEquals("[ON_PRIMARY]", showTables(conn).toString());
+        Assertions.assertEquals("[ON_PRIMARY]", getTables(conn).toString());
+        conn.rollback();
+        Assertions.assertEquals("[ON_REPLICA]", showTables(conn).toString());
+        conn.close();
+    }
+
+    @Test
+    public void explicit_transaction_on_primary() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL + "?proxy.replicas=" + REPLICA_URL, "sa", "sa");
+        Assertions.assertTrue(conn.getAutoCommit());
+        conn.createStatement().execute("BEGIN");
+        Assertions.assertEquals("[ON_PRIMARY]", showTables(conn).toString());
+        Assertions.assertEquals("[ON_PRIMARY]", getTables(conn).toString());
+        conn.createStatement().execute("COMMIT");
+        Assertions.assertEquals("[ON_REPLICA]", showTables(conn).toString());
+        conn.setAutoCommit(false);
+        conn.prepareStatement("INSERT INTO on_primary VALUES (1)").execute();
+        Assertions.assertEquals("[ON_PRIMARY]", showTables(conn).toString());
+        conn.prepareStatement("ROLLBACK").execute();
+        Assertions.assertEquals("[ON_REPLICA]", showTables(conn).toString());
+        conn.close();
+    }
+
+    @Test
+    public void unreachable_replica_falls_back_to_primary() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL
+                + "?proxy.replicas=jdbc:h2:mem:routing_missing;IFEXISTS=TRUE", "sa", "sa");
+        Assertions.assertEquals("[ON_PRIMARY]", showTables(conn).toString());
+        conn.close();
+    }
+
+    @Test
+    public void shared_metadata_channel() throws SQLException {
+        Connection conn1 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        Connection conn2 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        Connection channel = readConnection(conn1);
+        Assertions.assertNotSame(conn1.unwrap(Connection.class), channel);
+        Assertions.assertSame(channel, readConnection(conn2));
+        Assertions.assertSame(conn2, conn2.getMetaData().getConnection());
+        Assertions.assertEquals("[ON_PRIMARY]", showTables(conn2).toString());
+        conn1.close();
+        Assertions.assertFalse(channel.isClosed());
+        conn2.close();
+    }
+
+    @Test
+    public void metadata_channel_per_schema() throws SQLException {
+        Connection conn1 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        Connection conn2 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        conn1.prepareStatement("CREATE SCHEMA IF NOT EXISTS other").execute();
+        conn1.setSchema("OTHER");
+        Connection channel1 = readConnection(conn1);
+        Connection channel2 = readConnection(conn2);
+        Assertions.assertNotSame(channel1, channel2);
+        Assertions.assertEquals("OTHER", channel1.getSchema());
+        Assertions.assertEquals("PUBLIC", channel2.getSchema());
+        conn1.close();
+        conn2.close();
+    }
+
+    @Test
+    public void metadata_channel_used_by_one_thread() throws SQLException, InterruptedException {
+        MetadataChannel channel = MetadataChannel.acquire("channel_lock_test",
+                () -> DriverManager.getConnection(PRIMARY_URL, "sa", "sa"));
+        Connection conn = channel.lock(Collections.emptyList());
+        AtomicBoolean shared = new AtomicBoolean(false);
+        Thread other = new Thread(() -> {
+            Connection otherConn = channel.lock(Collections.emptyList());
+            shared.set(otherConn == conn);
+            channel.unlock(otherConn);
+        });
+        other.start();
+        other.join(200);
+        Assertions.assertTrue(other.isAlive());
+        channel.unlock(conn);
+        other.join(5000);
+        Assertions.assertTrue(shared.get());
+        channel.release();
+        Assertions.assertTrue(conn.isClosed());
+    }
+
+    @Test
+    public void metadata_channel_connections_limited() throws SQLException {
+        MetadataChannel channel = MetadataChannel.acquire("channel_limit_test",
+                () -> DriverManager.getConnection(PRIMARY_URL, "sa", "sa"));
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Connection conn = channel.lock(Collections.singletonList(new MetadataChannel.Setting("VARIABLE", "SET @v = " + i)));
+            connections.add(conn);
+            channel.unlock(conn);
+        }
+        Assertions.assertEquals(4, connections.stream().filter(c -> {
+            try {
+                return !c.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }).count());
+        Assertions.assertTrue(connections.get(0).isClosed());
+        Connection reopened = channel.lock(Collections.singletonList(new MetadataChannel.Setting("VARIABLE", "SET @v = 0")));
+        Assertions.assertFalse(reopened.isClosed());
+        channel.unlock(reopened);
+        channel.release();
+        Assertions.assertTrue(reopened.isClosed());
+    }
+
+    @Test
+    public void navigator_execute_locks_channel() throws SQLException, InterruptedException {
+        Connection conn1 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL, "sa", "sa");
+        Connection conn2 = DriverManager.getConnection("jdbc:proxy:" + PRIMARY_URL + "?proxy.metadataCache=false", "sa", "sa");
+        PreparedStatement stmt = conn2.prepareStatement(SHOW_TABLES);
+        stmt.setString(1, "PUBLIC");
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch unlock = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                ((ProxyConnection) conn1).readMetaData(md -> {
+                    locked.countDown();
+                    try {
+                        unlock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        locked.await();
+        AtomicBoolean executed = new AtomicBoolean(false);
+        Thread executor = new Thread(() -> {
+            try {
+                executed.set(stmt.execute());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        executor.start();
+        executor.join(200);
+        boolean waited = executor.isAlive();
+        unlock.countDown();
+        executor.join(5000);
+        Assertions.assertTrue(waited);
+        Assertions.assertTrue(executed.get());
+        ResultSet rs = stmt.getResultSet();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals("ON_PRIMARY", rs.getString("TABLE_NAME"));
+        Assertions.assertFalse(rs.next());
+        Assertions.assertEquals(-1, stmt.getUpdateCount());
+        holder.join(5000);
+        conn1.close();
+        conn2.close();
+    }
+}
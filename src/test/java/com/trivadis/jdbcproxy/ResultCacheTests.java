@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.CachedResult;
+import com.trivadis.jdbcproxy.cache.CachedResultSetMetaData;
+import com.trivadis.jdbcproxy.cache.ResultCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+public class ResultCacheTests {
+    private final static String URL = "jdbc:proxy:jdbc:h2:mem:result_cache_test?proxy.resultCacheTtl=60000";
+
+    private int count(Connection conn, int id) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM t WHERE id >= ?");
+        stmt.setInt(1, id);
+        ResultSet rs = stmt.executeQuery();
+        rs.next();
+        int count = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return count;
+    }
+
+    @Test
+    public void read_only_statements() {
+        Assertions.assertTrue(ResultCache.isReadOnly("select * from t"));
+        Assertions.assertTrue(ResultCache.isReadOnly("/* pane */ (SELECT 'insert into' FROM t)"));
+        Assertions.assertTrue(ResultCache.isReadOnly("WITH x AS (SELECT 1 FROM dual) SELECT * FROM x"));
+        Assertions.assertTrue(ResultCache.isReadOnly("SHOW TABLES"));
+        Assertions.assertFalse(ResultCache.isReadOnly("SELECT * FROM t FOR UPDATE"));
+        Assertions.assertFalse(ResultCache.isReadOnly("SELECT * INTO t2 FROM t"));
+        Assertions.assertFalse(ResultCache.isReadOnly("WITH d AS (DELETE FROM t RETURNING *) SELECT * FROM d"));
+        Assertions.assertFalse(ResultCache.isReadOnly("UPDATE t SET id = 1"));
+        Assertions.assertFalse(ResultCache.isReadOnly("-- select\nDROP TABLE t"));
+    }
+
+    @Test
+    public void cache_and_invalidate() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        Statement stmt = conn.createStatement();
+        stmt.execute("CREATE TABLE t (id INTEGER PRIMARY KEY)");
+        stmt.executeUpdate("INSERT INTO t VALUES (1), (2), (3)");
+        Assertions.assertEquals(3, count(conn, 1));
+        Assertions.assertEquals(2, count(conn, 2));
+        // change not seen by the proxy connection, the cached result is returned
+        conn.unwrap(Connection.class).createStatement().executeUpdate("INSERT INTO t VALUES (4)");
+        Assertions.assertEquals(3, count(conn, 1));
+        // DML on the proxy connection drops the cached results
+        stmt.executeUpdate("DELETE FROM t WHERE id = 1");
+        Assertions.assertEquals(3, count(conn, 1));
+        Assertions.assertEquals(3, count(conn, 2));
+        stmt.execute("DROP TABLE t");
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void large_result_not_cached() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL, "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, ?)");
+        stmt.setInt(1, ResultCache.MAX_ROWS + 5);
+        ResultSet rs = stmt.executeQuery();
+        int rows = 0;
+        while (rs.next()) {
+            rows++;
+            Assertions.assertEquals(rows, rs.getInt(1));
+        }
+        Assertions.assertEquals(ResultCache.MAX_ROWS + 5, rows);
+        rs.close();
+        Assertions.assertEquals(0, ((ProxyConnection) conn).getResultCache().getEntryCount());
+        conn.close();
+    }
+
+    @Test
+    public void schema_change_drops_results() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:result_cache_schema_test?proxy.resultCacheTtl=60000", "sa", "sa");
+        Statement stmt = conn.createStatement();
+        stmt.execute("CREATE SCHEMA a");
+        stmt.execute("CREATE SCHEMA b");
+        stmt.execute("CREATE TABLE a.t (id INTEGER PRIMARY KEY)");
+        stmt.execute("CREATE TABLE b.t (id INTEGER PRIMARY KEY)");
+        stmt.executeUpdate("INSERT INTO a.t VALUES (1)");
+        stmt.executeUpdate("INSERT INTO b.t VALUES (1), (2)");
+        conn.setSchema("A");
+        Assertions.assertEquals(1, count(conn, 1));
+        conn.setSchema("B");
+        Assertions.assertEquals(2, count(conn, 1));
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void large_result_read_up_to_budget() throws SQLException {
+        String sql = "SELECT x || repeat('y', 1000) AS text FROM system_range(1, 100)";
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+        ResultSet targetRs = conn.createStatement().executeQuery(sql);
+        CachedResult first = CachedResult.read(targetRs, new CachedResultSetMetaData(targetRs.getMetaData()), ResultCache.MAX_ROWS, 16 * 1024);
+        Assertions.assertTrue(first.getRowCount() < 100);
+        Assertions.assertTrue(first.getSizeInBytes() > 16 * 1024);
+        conn.close();
+        Connection proxyConn = DriverManager.getConnection(URL + "&proxy.resultCacheBudget=16k", "sa", "sa");
+        ResultSet rs = proxyConn.prepareStatement(sql).executeQuery();
+        int rows = 0;
+        while (rs.next()) {
+            rows++;
+            Assertions.assertTrue(rs.getString(1).startsWith(rows + "y"));
+        }
+        Assertions.assertEquals(100, rows);
+        rs.close();
+        Assertions.assertEquals(0, ((ProxyConnection) proxyConn).getResultCache().getEntryCount());
+        proxyConn.close();
+    }
+
+    @Test
+    public void expiry_and_budget() throws SQLException, InterruptedException {
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+        CachedResult result = CachedResult.of(conn.createStatement().executeQuery("SELECT x FROM system_range(1, 10)"));
+        conn.close();
+        ResultCache cache = new ResultCache(100, result.getSizeInBytes() * 2);
+        List<Object> key1 = ResultCache.key("SELECT 1", Collections.emptyList(), 0);
+        List<Object> key2 = ResultCache.key("SELECT 2", Collections.emptyList(), 0);
+        List<Object> key3 = ResultCache.key("SELECT 3", Collections.emptyList(), 0);
+        cache.put(key1, result);
+        cache.put(key2, result);
+        Assertions.assertSame(result, cache.get(key1));
+        // exceeds the budget, evicts the least recently used entry
+        cache.put(key3, result);
+        Assertions.assertNull(cache.get(key2));
+        Assertions.assertSame(result, cache.get(key1));
+        Assertions.assertEquals(2, cache.getEntryCount());
+        Thread.sleep(150);
+        Assertions.assertNull(cache.get(key1));
+        Assertions.assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void cached_via_execute() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:result_cache_execute_test?proxy.resultCacheTtl=60000", "sa", "sa");
+        Statement stmt = conn.createStatement();
+        stmt.execute("CREATE TABLE t (id INTEGER PRIMARY KEY)");
+        stmt.executeUpdate("INSERT INTO t VALUES (1), (2)");
+        Assertions.assertTrue(stmt.execute("SELECT COUNT(*) FROM t"));
+        ResultSet rs = stmt.getResultSet();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals(2, rs.getInt(1));
+        rs.close();
+        Assertions.assertEquals(1, ((ProxyConnection) conn).getResultCache().getEntryCount());
+        conn.unwrap(Connection.class).createStatement().executeUpdate("INSERT INTO t VALUES (3)");
+        PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM t");
+        Assertions.assertTrue(pstmt.execute());
+        rs = pstmt.getResultSet();
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals(2, rs.getInt(1));
+        rs.close();
+        pstmt.close();
+        stmt.close();
+        conn.close();
+    }
+}
@@ -56,4 +56,59 @@ public class RewriteHelperTests {
             Assertions.assertEquals("CALL p(?)", helper.rewriteCall("begin p(to_char(?));end;"));
         }
     }
+
+    @Nested
+    class WhenLimitRows {
+        @Test void append_limit_for_PostgreSQL() {
+            RewriteHelper helper = new RewriteHelper();
+            Assertions.assertEquals("select * from t order by 1 LIMIT 50",
+                    helper.limitRows("select * from t order by 1; -- data tab", "PostgreSQL", 50));
+        }
+
+        @Test void append_fetch_first_for_H2() {
+            RewriteHelper helper = new RewriteHelper();
+            Assertions.assertEquals("with x as (select 1 a limit 5) select a from x FETCH FIRST 10 ROWS ONLY",
+                    helper.limitRows("with x as (select 1 a limit 5) select a from x", "H2", 10));
+        }
+
+        @Test void keep_limited_queries() {
+            RewriteHelper helper = new RewriteHelper();
+            Assertions.assertEquals("select * from t limit 5", helper.limitRows("select * from t limit 5", "Snowflake", 10));
+            Assertions.assertEquals("select top 5 * from t", helper.limitRows("select top 5 * from t", "Snowflake", 10));
+            Assertions.assertEquals("select * from t for update", helper.limitRows("select * from t for update", "PostgreSQL", 10));
+            Assertions.assertEquals("select 1; select 2", helper.limitRows("select 1; select 2", "SQLite", 10));
+            Assertions.assertEquals("select * from t", helper.limitRows("select * from t", "MySQL", 10));
+        }
+
+        @Test void ignore_keywords_in_literals() {
+            RewriteHelper helper = new RewriteHelper();
+            Assertions.assertEquals("select 'limit' from \"offset\" LIMIT 10",
+                    helper.limitRows("select 'limit' from \"offset\"", "SQLite", 10));
+        }
+    }
+
+    @Nested
+    class WhenApproximateRowCount {
+        @Test void read_reltuples_for_PostgreSQL() {
+            RewriteHelper helper = new RewriteHelper();
+            String sql = helper.approximateRowCount("SELECT COUNT(*) FROM public.\"Orders\"", "PostgreSQL");
+            Assertions.assertTrue(sql.contains("to_regclass('public.\"Orders\"')"));
+            Assertions.assertTrue(sql.contains("(SELECT count(*) FROM public.\"Orders\")"));
+        }
+
+        @Test void read_row_count_for_Snowflake() {
+            RewriteHelper helper = new RewriteHelper();
+            String sql = helper.approximateRowCount("select count(1) cnt from sales.orders", "Snowflake");
+            Assertions.assertTrue(sql.contains("table_schema = 'SALES'"));
+            Assertions.assertTrue(sql.contains("table_name = 'ORDERS'"));
+            Assertions.assertTrue(sql.endsWith(" AS cnt"));
+        }
+
+        @Test void keep_filtered_counts() {
+            RewriteHelper helper = new RewriteHelper();
+            String sql = "SELECT COUNT(*) FROM t WHERE x = 1";
+            Assertions.assertEquals(sql, helper.approximateRowCount(sql, "PostgreSQL"));
+            Assertions.assertEquals("SELECT COUNT(*) FROM t", helper.approximateRowCount("SELECT COUNT(*) FROM t", "H2"));
+        }
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.cache.RowStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+public class ScrollableResultSetTests {
+
+    @Test
+    public void scroll_spilled_rows() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:spill_test?proxy.spillThreshold=1k", "sa", "sa");
+        ResultSet rs = conn.prepareStatement("SELECT x, 'row ' || x AS label FROM system_range(1, 1000)",
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).executeQuery();
+        Assertions.assertTrue(rs instanceof ScrollableResultSet);
+        Assertions.assertTrue(rs.isBeforeFirst());
+        Assertions.assertTrue(rs.next());
+        Assertions.assertEquals(1, rs.getInt(1));
+        Assertions.assertTrue(rs.last());
+        Assertions.assertEquals(1000, rs.getRow());
+        Assertions.assertEquals("row 1000", rs.getString("LABEL"));
+        Assertions.assertTrue(((ScrollableResultSet) rs).isSpilled());
+        Assertions.assertTrue(rs.absolute(500));
+        Assertions.assertEquals(500L, rs.getLong(1));
+        Assertions.assertTrue(rs.previous());
+        Assertions.assertEquals(499, rs.getInt(1));
+        Assertions.assertTrue(rs.relative(-10));
+        Assertions.assertEquals(489, rs.getInt(1));
+        Assertions.assertTrue(rs.absolute(-2));
+        Assertions.assertEquals(999, rs.getInt(1));
+        Assertions.assertFalse(rs.relative(5));
+        Assertions.assertTrue(rs.isAfterLast());
+        Assertions.assertTrue(rs.first());
+        Assertions.assertEquals("row 1", rs.getString(2));
+        rs.close();
+        conn.close();
+    }
+
+    private static int spillFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir"))
+                .list((dir, name) -> name.startsWith("jdbc-proxy-") && name.endsWith(".rows"));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void statement_close_deletes_spill_file() throws SQLException {
+        int files = spillFiles();
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:spill_close_test?proxy.spillThreshold=1k", "sa", "sa");
+        PreparedStatement stmt = conn.prepareStatement("SELECT x, 'row ' || x AS label FROM system_range(1, 1000)",
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        ResultSet rs = stmt.executeQuery();
+        Assertions.assertTrue(rs.last());
+        Assertions.assertTrue(((ScrollableResultSet) rs).isSpilled());
+        stmt.close();
+        Assertions.assertTrue(rs.isClosed());
+        Assertions.assertEquals(files, spillFiles());
+        conn.close();
+    }
+
+    @Test
+    public void scrollable_via_statement_and_execute() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:proxy:jdbc:h2:mem:spill_execute_test?proxy.spillThreshold=1k", "sa", "sa");
+        Statement stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        Assertions.assertEquals(ResultSet.TYPE_SCROLL_INSENSITIVE, stmt.getResultSetType());
+        ResultSet rs = stmt.executeQuery("SELECT x FROM system_range(1, 1000)");
+        Assertions.assertTrue(rs.absolute(500));
+        Assertions.assertTrue(rs.previous());
+        Assertions.assertEquals(499, rs.getInt(1));
+        Assertions.assertTrue(stmt.execute("CALL 42"));
+        rs = stmt.getResultSet();
+        Assertions.assertEquals(ResultSet.TYPE_SCROLL_INSENSITIVE, rs.getType());
+        Assertions.assertTrue(rs.last());
+        Assertions.assertEquals(42, rs.getInt(1));
+        stmt.close();
+        PreparedStatement pstmt = conn.prepareStatement("SELECT x FROM system_range(1, 1000)",
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        Assertions.assertTrue(pstmt.execute());
+        rs = pstmt.getResultSet();
+        Assertions.assertTrue(rs.absolute(-1));
+        Assertions.assertEquals(1000, rs.getInt(1));
+        pstmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void row_store_round_trip() throws SQLException {
+        Timestamp timestamp = Timestamp.valueOf("2021-08-15 10:11:12.123456789");
+        Object[] row = {null, "text", 42, 42L, 4.2d, true, new BigDecimal("12.345"), new byte[]{1, 2}, timestamp};
+        try (RowStore store = new RowStore(0)) {
+            store.add(row);
+            store.add(row);
+            Assertions.assertTrue(store.isSpilled());
+            Assertions.assertEquals(2, store.size());
+            Object[] actual = store.get(1);
+            Assertions.assertNull(actual[0]);
+            Assertions.assertEquals("text", actual[1]);
+            Assertions.assertEquals(42, actual[2]);
+            Assertions.assertEquals(42L, actual[3]);
+            Assertions.assertEquals(4.2d, actual[4]);
+            Assertions.assertEquals(true, actual[5]);
+            Assertions.assertEquals(new BigDecimal("12.345"), actual[6]);
+            Assertions.assertArrayEquals(new byte[]{1, 2}, (byte[]) actual[7]);
+            Assertions.assertEquals(timestamp, actual[8]);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.log.QueryTrace;
+import com.trivadis.jdbcproxy.log.RingBuffer;
+import com.trivadis.jdbcproxy.log.SlowQueryLog;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SlowQueryLogTests {
+
+    @Test
+    public void ring_buffer_drops_when_full() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i);
+        }
+        Assertions.assertEquals(2, buffer.getDropped());
+        Assertions.assertEquals(0, buffer.poll());
+        Assertions.assertTrue(buffer.offer(6));
+        Assertions.assertEquals(1, buffer.poll());
+        Assertions.assertEquals(2, buffer.poll());
+        Assertions.assertEquals(3, buffer.poll());
+        Assertions.assertEquals(6, buffer.poll());
+        Assertions.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void rotate_files() throws Exception {
+        Path dir = Files.createTempDirectory("slow-query-log");
+        File file = new File(dir.toFile(), "slow.log");
+        SlowQueryLog log = SlowQueryLog.getInstance(file.getPath(), 10, 600, 2);
+        for (int i = 0; i < 10; i++) {
+            QueryTrace trace = new QueryTrace(log, null, 0, "SELECT " + i, "SELECT " + i, "H2", null, 0);
+            trace.executed(20_000_000L, -1, null);
+            trace.finish();
+            log.flush();
+        }
+        QueryTrace fast = new QueryTrace(log, null, 0, "SELECT fast", "SELECT fast", "H2", null, 0);
+        fast.executed(1_000_000L, -1, null);
+        fast.finish();
+        log.flush();
+        Assertions.assertTrue(file.exists());
+        Assertions.assertTrue(new File(file.getPath() + ".1").exists());
+        Assertions.assertTrue(new File(file.getPath() + ".2").exists());
+        Assertions.assertFalse(new File(file.getPath() + ".3").exists());
+        Assertions.assertTrue(file.length() <= 600);
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assertions.assertTrue(lines.get(lines.size() - 1).contains("\"sql\":\"SELECT 9\""));
+        for (File f : dir.toFile().listFiles()) {
+            Files.delete(f.toPath());
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void log_slow_query_with_binds() throws Exception {
+        Path dir = Files.createTempDirectory("slow-query-log");
+        File file = new File(dir.toFile(), "slow.log");
+        String url = "jdbc:proxy:jdbc:h2:mem:slow_query_test?proxy.slowQueryThreshold=50&proxy.slowQueryLog=" + file.getPath();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "sa")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE ALIAS pause FOR 'java.lang.Thread.sleep'");
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT x FROM system_range(1, ?) WHERE pause(10) IS NULL")) {
+                stmt.setInt(1, 10);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    // consume
+                }
+                rs.close();
+                stmt.setInt(1, 1);
+                rs = stmt.executeQuery();
+                rs.close();
+            }
+            SlowQueryLog.getInstance(file.getPath(), 0, 0, 0).flush();
+        }
+        // the second execution with a single row is faster than the threshold
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream()
+                .filter(l -> l.contains("system_range")).collect(Collectors.toList());
+        Assertions.assertEquals(1, lines.size(), lines.toString());
+        String line = lines.get(0);
+        for (String expected : Arrays.asList("\"product\":\"H2\"", "\"rows\":10", "\"binds\":[10]",
+                "\"originalSql\":\"SELECT x FROM system_range(1, ?) WHERE pause(10) IS NULL\"", "\"prepareMs\":")) {
+            Assertions.assertTrue(line.contains(expected), line);
+        }
+        Files.delete(file.toPath());
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.rewrite.SnowflakeShowMetadata;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SnowflakeShowMetadataTests {
+
+    private final static String SHOW_TABLES = "select TABLE_NAME from information_schema.Tables where cast(TABLE_SCHEMA as binary) = ?  \n" +
+            "\t\t\t\t\t\t\t\tand (TABLE_TYPE = 'BASE TABLE' OR table_schema='information_schema')\n" +
+            "                        ";
+
+    private static List<Object> columnBinds(String schema, String table) {
+        return Arrays.asList("x", "x", "x", table, schema, "x", "x", "x", table, schema);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Records the statements executed via a statement of an H2 connection pretending to be Snowflake.
+     * SHOW commands are not executed, RESULT_SCAN returns a table T.
+     */
+    private static Object recordingStatement(Statement target, Class<?> type, Connection connection, String sql,
+                                             List<String> executed) {
+        return Proxy.newProxyInstance(SnowflakeShowMetadataTests.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        return connection;
+                    } else if (method.getName().startsWith("execute")) {
+                        String executedSql = args != null && args.length > 0 ? (String) args[0] : sql;
+                        executed.add(executedSql);
+                        if (executedSql.startsWith("SHOW ")) {
+                            return true;
+                        } else if (executedSql.contains("RESULT_SCAN")) {
+                            return target.executeQuery("SELECT 'T' AS \"TABLE_NAME\"");
+                        } else if (executedSql.contains("LAST_QUERY_ID()")) {
+                            return target.executeQuery("SELECT 'query-id'");
+                        }
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private static Connection fakeSnowflake(Connection h2, List<String> executed) {
+        Connection[] fake = new Connection[1];
+        fake[0] = (Connection) Proxy.newProxyInstance(SnowflakeShowMetadataTests.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if ("getMetaData".equals(method.getName())) {
+                        DatabaseMetaData metaData = h2.getMetaData();
+                        return Proxy.newProxyInstance(SnowflakeShowMetadataTests.class.getClassLoader(),
+                                new Class<?>[]{DatabaseMetaData.class}, (p, m, a) ->
+                                        "getDatabaseProductName".equals(m.getName()) ? "Snowflake" : invoke(metaData, m, a));
+                    } else if ("createStatement".equals(method.getName())) {
+                        return recordingStatement((Statement) invoke(h2, method, args), Statement.class, fake[0], null, executed);
+                    } else if ("prepareStatement".equals(method.getName())) {
+                        return recordingStatement((Statement) invoke(h2, method, args), PreparedStatement.class, fake[0],
+                                (String) args[0], executed);
+                    }
+                    return invoke(h2, method, args);
+                });
+        return fake[0];
+    }
+
+    @Nested
+    class WhenShowMode {
+        @Test
+        public void no_information_schema_query() throws SQLException {
+            List<String> executed = new ArrayList<>();
+            Connection h2 = DriverManager.getConnection("jdbc:h2:mem:show_mode_test");
+            ProxyConnection conn = new ProxyConnection(fakeSnowflake(h2, executed),
+                    ProxyUrl.parse("jdbc:proxy:jdbc:h2:mem:show_mode_test?proxy.snowflakeMetadata=show"), null, null);
+            for (int i = 0; i < 2; i++) {
+                PreparedStatement stmt = conn.prepareStatement(SHOW_TABLES);
+                stmt.setString(1, "PUBLIC");
+                ResultSet rs = stmt.executeQuery();
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals("T", rs.getString(1));
+                rs.close();
+                stmt.close();
+            }
+            Assertions.assertTrue(executed.contains("SHOW TERSE TABLES IN SCHEMA \"PUBLIC\""));
+            for (String sql : executed) {
+                Assertions.assertFalse(sql.toLowerCase().contains("information_schema"), sql);
+            }
+            conn.close();
+        }
+    }
+
+    @Nested
+    class WhenShow {
+        @Test
+        public void show_schemas() {
+            Assertions.assertEquals("SHOW TERSE SCHEMAS",
+                    SnowflakeShowMetadata.show("showSchemas", Collections.emptyList()));
+        }
+
+        @Test
+        public void show_tables_with_quoted_schema() {
+            Assertions.assertEquals("SHOW TERSE TABLES IN SCHEMA \"My\"\"Schema\"",
+                    SnowflakeShowMetadata.show("showTables", Collections.singletonList("My\"Schema")));
+        }
+
+        @Test
+        public void show_table_columns() {
+            Assertions.assertEquals("DESCRIBE TABLE \"S\".\"T\"",
+                    SnowflakeShowMetadata.show("showTableColumns", columnBinds("S", "T")));
+        }
+
+        @Test
+        public void show_view_columns_short() {
+            Assertions.assertEquals("DESCRIBE VIEW \"S\".\"V\"",
+                    SnowflakeShowMetadata.show("showViewColumnsShort", Arrays.asList("S", "V")));
+        }
+
+        @Test
+        public void show_view_details() {
+            Assertions.assertEquals("SHOW VIEWS LIKE 'It''s' IN SCHEMA \"S\"",
+                    SnowflakeShowMetadata.show("showViewDetails", columnBinds("S", "It's")));
+        }
+
+        @Test
+        public void keep_information_schema() {
+            Assertions.assertNull(SnowflakeShowMetadata.show("showTables",
+                    Collections.singletonList("INFORMATION_SCHEMA")));
+        }
+
+        @Test
+        public void keep_unknown_binds() {
+            Assertions.assertNull(SnowflakeShowMetadata.show("showTables", Collections.singletonList(null)));
+            Assertions.assertNull(SnowflakeShowMetadata.show("showTables", Collections.emptyList()));
+        }
+
+        @Test
+        public void keep_unsupported_rule() {
+            Assertions.assertNull(SnowflakeShowMetadata.show("showIndexes", Arrays.asList("I", "S")));
+        }
+    }
+
+    @Nested
+    class WhenProjection {
+        @Test
+        public void project_result_scan() {
+            String sql = SnowflakeShowMetadata.projection("showTables", Collections.singletonList("S"), "01a-b",
+                    Collections.emptyList());
+            Assertions.assertTrue(sql.startsWith("SELECT \"name\" AS \"TABLE_NAME\""));
+            Assertions.assertTrue(sql.contains("FROM TABLE(RESULT_SCAN('01a-b'))"));
+        }
+
+        @Test
+        public void number_columns_in_definition_order() {
+            String sql = SnowflakeShowMetadata.projection("showTableColumns", columnBinds("S", "T"), "q",
+                    Arrays.asList("B", "A", "It's"));
+            Assertions.assertTrue(sql.startsWith("SELECT column_name,\n       ordinal_position,"));
+            Assertions.assertTrue(sql.contains("array_position(\"name\"::variant, array_construct('B', 'A', 'It''s')) + 1"
+                    + " AS ordinal_position"));
+            Assertions.assertFalse(sql.contains("row_number()"));
+            Assertions.assertTrue(sql.endsWith(" ORDER BY ordinal_position"));
+        }
+
+        @Test
+        public void order_short_view_columns_in_definition_order() {
+            String sql = SnowflakeShowMetadata.projection("showViewColumnsShort", Arrays.asList("S", "V"), "q",
+                    Arrays.asList("B", "A"));
+            Assertions.assertTrue(sql.endsWith(" ORDER BY array_position(\"name\"::variant, array_construct('B', 'A')) + 1"));
+        }
+
+        @Test
+        public void filter_view_by_exact_name() {
+            String sql = SnowflakeShowMetadata.projection("showViewDetails", columnBinds("S", "v_1"), "q",
+                    Collections.emptyList());
+            Assertions.assertTrue(sql.endsWith(" WHERE \"name\" = 'v_1'"));
+        }
+
+        @Test
+        public void reject_unsupported_rule() {
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> SnowflakeShowMetadata.projection("showIndexes", Collections.emptyList(), "q",
+                            Collections.emptyList()));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.rewrite.RewriteHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Measures the time from loading the driver class the way SQL Developer does it,
+ * via Class.forName("com.mysql.jdbc.Driver"), to the first result of a navigator query.
+ * Every run uses a fresh JVM and local embedded targets (H2, SQLite). The phases are
+ * measured one after another, hence a phase does not contain the costs of the previous ones:
+ * <ul>
+ *     <li>load: loading the driver class without initializing it</li>
+ *     <li>register: static initialization, registration in the DriverManager</li>
+ *     <li>rewriteScan: reflective scan of the rewrite rules in RewriteHelper</li>
+ *     <li>connect: first connection via the proxy driver instance, including the target driver</li>
+ *     <li>firstQuery: prepare, execute and fetch "show databases"</li>
+ * </ul>
+ * The last three phases are measured a second time in the same JVM (warm).
+ * The forks run with -verbose:class to report the target driver classes loaded.
+ * Usage: java -cp &lt;test-classpath&gt; com.trivadis.jdbcproxy.StartupBenchmark [forks] [maxColdMillis]
+ * The process fails when the median of the total cold time of a target exceeds maxColdMillis
+ * or when a driver of another target is loaded.
+ */
+public class StartupBenchmark {
+    private final static String FORK_ARG = "--fork";
+    private final static String DRIVER_CLASS = "com.mysql.jdbc.Driver";
+    private final static String[] PHASES = {"load", "register", "rewriteScan", "connect", "firstQuery"};
+    private final static Map<String, String> TARGETS = new LinkedHashMap<>();
+
+    static {
+        TARGETS.put("H2", "jdbc:mysql://jdbc:h2:mem:startup_benchmark:/");
+        TARGETS.put("SQLite", "jdbc:mysql://jdbc:sqlite::memory::/");
+    }
+
+    private static long start;
+
+    private static void startPhase() {
+        start = System.nanoTime();
+    }
+
+    private static void endPhase(String prefix, String phase) {
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+        System.out.println(prefix + "." + phase + "=" + millis);
+    }
+
+    private static void connectAndQuery(Driver driver, String url, String prefix) throws SQLException {
+        startPhase();
+        new RewriteHelper();
+        endPhase(prefix, "rewriteScan");
+        startPhase();
+        // DriverManager.getConnection would load all drivers on the class path
+        try (Connection conn = driver.connect(url, new Properties())) {
+            endPhase(prefix, "connect");
+            startPhase();
+            try (PreparedStatement ps = conn.prepareStatement("show databases"); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rs.getString(1);
+                }
+            }
+            endPhase(prefix, "firstQuery");
+        }
+    }
+
+    private static void runFork(String url) throws Exception {
+        ClassLoader loader = StartupBenchmark.class.getClassLoader();
+        startPhase();
+        Class.forName(DRIVER_CLASS, false, loader);
+        endPhase("cold", "load");
+        startPhase();
+        Class<?> driverClass = Class.forName(DRIVER_CLASS, true, loader);
+        endPhase("cold", "register");
+        Driver driver = (Driver) driverClass.getDeclaredConstructor().newInstance();
+        connectAndQuery(driver, url, "cold");
+        connectAndQuery(driver, url, "warm");
+    }
+
+    /**
+     * Returns the driver class names of all targets by sub-protocol.
+     */
+    private static Map<String, String> getDriverClassNames() {
+        Map<String, String> driverClassNames = new LinkedHashMap<>();
+        for (TargetDriverProvider provider : ServiceLoader.load(TargetDriverProvider.class)) {
+            driverClassNames.put(provider.getSubProtocol(), provider.getDriverClassName());
+        }
+        return driverClassNames;
+    }
+
+    /**
+     * Runs a fork and returns its timings. The driver classes loaded in the fork are added to loadedDrivers.
+     */
+    private static Map<String, Double> measureInFork(String url, Set<String> loadedDrivers) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-verbose:class", "-cp", System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(), FORK_ARG, url).redirectErrorStream(true).start();
+        Collection<String> driverClassNames = getDriverClassNames().values();
+        Map<String, Double> result = new LinkedHashMap<>();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+                int pos = line.indexOf('=');
+                if (line.startsWith("cold.") || line.startsWith("warm.")) {
+                    result.put(line.substring(0, pos), Double.parseDouble(line.substring(pos + 1)));
+                } else {
+                    // e.g. "[info][class,load] org.h2.Driver source: ..." or "[Loaded org.h2.Driver from ...]"
+                    for (String token : line.split("\\s+")) {
+                        if (driverClassNames.contains(token)) {
+                            loadedDrivers.add(token);
+                        }
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result.isEmpty()) {
+            throw new IllegalStateException("Fork failed: " + String.join(System.lineSeparator(), output));
+        }
+        return result;
+    }
+
+    private static double median(List<Double> timings) {
+        List<Double> sorted = new ArrayList<>(timings);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && FORK_ARG.equals(args[0])) {
+            runFork(args[1]);
+            return;
+        }
+        int forks = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        double maxColdMillis = args.length > 1 ? Double.parseDouble(args[1]) : Double.MAX_VALUE;
+        boolean exceeded = false;
+        for (Map.Entry<String, String> target : TARGETS.entrySet()) {
+            Map<String, List<Double>> timings = new LinkedHashMap<>();
+            List<Double> coldTotals = new ArrayList<>();
+            Set<String> loadedDrivers = new TreeSet<>();
+            for (int i = 0; i < forks; i++) {
+                Map<String, Double> fork = measureInFork(target.getValue(), loadedDrivers);
+                double coldTotal = 0;
+                for (Map.Entry<String, Double> timing : fork.entrySet()) {
+                    timings.computeIfAbsent(timing.getKey(), k -> new ArrayList<>()).add(timing.getValue());
+                    if (timing.getKey().startsWith("cold.")) {
+                        coldTotal += timing.getValue();
+                    }
+                }
+                coldTotals.add(coldTotal);
+            }
+            System.out.printf("%s (%d forks, median in ms)%n", target.getKey(), forks);
+            System.out.printf("  %-12s %10s %10s%n", "phase", "cold", "warm");
+            for (String phase : PHASES) {
+                List<Double> cold = timings.get("cold." + phase);
+                List<Double> warm = timings.get("warm." + phase);
+                System.out.printf("  %-12s %10.1f %10s%n", phase, median(cold),
+                        warm == null ? "-" : String.format("%.1f", median(warm)));
+            }
+            double coldTotal = median(coldTotals);
+            System.out.printf("  %-12s %10.1f%n", "total", coldTotal);
+            if (coldTotal > maxColdMillis) {
+                System.out.printf("  total cold time exceeds %.1f ms%n", maxColdMillis);
+                exceeded = true;
+            }
+            String targetUrl = target.getValue().substring(ProxyUrl.MYSQL_PREFIX.length() + 2);
+            String expectedDriver = getDriverClassNames().get(TargetDriverRegistry.getSubProtocol(targetUrl));
+            System.out.printf("  %-12s %s%n", "drivers", String.join(", ", loadedDrivers));
+            if (!Collections.singleton(expectedDriver).equals(loadedDrivers)) {
+                System.out.printf("  expected to load %s only%n", expectedDriver);
+                exceeded = true;
+            }
+        }
+        if (exceeded) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trivadis.jdbcproxy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TargetGroupTests {
+    private final static String NODE1_URL = "jdbc:h2:mem:group_node1;DB_CLOSE_DELAY=-1";
+    private final static String NODE2_URL = "jdbc:h2:mem:group_node2;DB_CLOSE_DELAY=-1";
+    private final static String MISSING_URL = "jdbc:h2:mem:group_missing;IFEXISTS=TRUE";
+    private static Connection node1;
+    private static Connection node2;
+
+    @BeforeAll
+    public static void setup() throws SQLException {
+        node1 = DriverManager.getConnection(NODE1_URL, "sa", "sa");
+        node2 = DriverManager.getConnection(NODE2_URL, "sa", "sa");
+    }
+
+    @AfterAll
+    public static void teardown() throws SQLException {
+        node1.close();
+        node2.close();
+    }
+
+    private String getUrl(Connection conn) throws SQLException {
+        // URL of the user's connection, metadata calls might use another connection
+        String url = conn.unwrap(Connection.class).getMetaData().getURL();
+        conn.close();
+        return url;
+    }
+
+    @Test
+    public void round_robin() throws SQLException {
+        String url = "jdbc:proxy:" + NODE1_URL + "?proxy.targets=" + NODE2_URL;
+        Set<String> urls = new HashSet<>();
+        urls.add(getUrl(DriverManager.getConnection(url, "sa", "sa")));
+        urls.add(getUrl(DriverManager.getConnection(url, "sa", "sa")));
+        Assertions.assertEquals(2, urls.size());
+    }
+
+    @Test
+    public void failover() throws SQLException {
+        String url = "jdbc:proxy:" + MISSING_URL + "?proxy.targets=" + NODE1_URL;
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(getUrl(DriverManager.getConnection(url, "sa", "sa")).contains("group_node1"));
+        }
+    }
+
+    @Test
+    public void no_target_available() {
+        String url = "jdbc:proxy:" + MISSING_URL + "?proxy.targets=" + MISSING_URL.replace("missing", "missing2");
+        SQLException error = Assertions.assertThrows(SQLException.class, () -> DriverManager.getConnection(url, "sa", "sa"));
+        Assertions.assertEquals("Cannot connect to any target.", error.getMessage());
+    }
+
+    @Test
+    public void corrected_password() throws SQLException {
+        String url = "jdbc:proxy:" + NODE2_URL + "?proxy.targets=" + NODE1_URL;
+        Assertions.assertThrows(SQLException.class, () -> DriverManager.getConnection(url, "sa", "wrong"));
+        Assertions.assertFalse(getUrl(DriverManager.getConnection(url, "sa", "sa")).isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Philipp Salvisberg <philipp.salvisberg@trivadis.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trivadis.jdbcproxy;
+
+import com.trivadis.jdbcproxy.log.TrafficRecord;
+import com.trivadis.jdbcproxy.log.TrafficRecorder;
+import com.trivadis.jdbcproxy.log.TrafficReplay;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class TrafficRecorderTests {
+
+    @Test
+    public void record_and_replay() throws Exception {
+        File file = File.createTempFile("jdbc-proxy", ".trace");
+        Files.delete(file.toPath());
+        String url = "jdbc:proxy:jdbc:h2:mem:traffic_test?proxy.record=" + file.getPath();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "sa")) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT x FROM system_range(1, ?) WHERE ? IS NOT NULL AND ? IS NOT NULL AND ? IS NULL")) {
+                stmt.setInt(1, 10);
+                stmt.setString(2, "it's");
+                stmt.setDate(3, Date.valueOf("2021-03-01"));
+                stmt.setNull(4, java.sql.Types.VARCHAR);
+                ResultSet rs = stmt.executeQuery();
+                for (int i = 0; i < 4; i++) {
+                    rs.next();
+                }
+                rs.close();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE t (c INTEGER)");
+                stmt.executeUpdate("INSERT INTO t VALUES (1), (2)");
+            }
+        }
+        TrafficRecorder.getInstance(file.getPath()).flush();
+        List<TrafficRecord> records = TrafficRecord.read(file);
+        Assertions.assertEquals(3, records.size());
+        TrafficRecord query = records.get(0);
+        Assertions.assertEquals("H2", query.getProduct());
+        Assertions.assertEquals(4, query.getRows());
+        Assertions.assertEquals(Arrays.asList(10L, "it's", Date.valueOf("2021-03-01"), null), query.getBinds());
+        Assertions.assertEquals(query.getSession(), records.get(2).getSession());
+        Assertions.assertEquals("INSERT INTO t VALUES (1), (2)", records.get(2).getOriginalSql());
+        Assertions.assertEquals(2, records.get(2).getRows());
+        Assertions.assertFalse(records.get(2).isFailed());
+
+        Properties info = new Properties();
+        info.setProperty("user", "sa");
+        info.setProperty("password", "sa");
+        String summary = new TrafficReplay(records, "jdbc:proxy:jdbc:h2:mem:traffic_replay", info, 2, 0, false).run();
+        Assertions.assertTrue(summary.startsWith("Replayed 3 statements of 1 sessions"), summary);
+        Assertions.assertTrue(summary.contains(", 0 failed, 0 with different row count."), summary);
+        Files.delete(file.toPath());
+    }
+}